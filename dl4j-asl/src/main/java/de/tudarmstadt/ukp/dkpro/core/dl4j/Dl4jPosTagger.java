@@ -17,19 +17,17 @@
  */
 package de.tudarmstadt.ukp.dkpro.core.dl4j;
 
-import static java.util.Arrays.asList;
+import static java.util.Comparator.comparingInt;
 import static org.apache.uima.fit.util.JCasUtil.select;
 import static org.apache.uima.fit.util.JCasUtil.selectCovered;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 
-import org.apache.commons.compress.archivers.zip.ZipFile;
-import org.apache.commons.io.IOUtils;
 import org.apache.uima.UimaContext;
 import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
 import org.apache.uima.fit.component.JCasAnnotator_ImplBase;
@@ -37,7 +35,6 @@ import org.apache.uima.fit.descriptor.ConfigurationParameter;
 import org.apache.uima.jcas.JCas;
 import org.apache.uima.resource.ResourceInitializationException;
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
-import org.deeplearning4j.util.ModelSerializer;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.DataSet;
 import org.nd4j.linalg.factory.Nd4j;
@@ -46,8 +43,15 @@ import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
 import de.tudarmstadt.ukp.dkpro.core.api.parameter.ComponentParameters;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryVectorizerRegistry;
 import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.BinaryVectorizer;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.ModelArchive;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.ModelCache;
 import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.Vectorize;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.WordEmbeddings;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.WordVectorCache;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.WordVectorCache.LfuPolicy;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.WordVectorCache.LruPolicy;
 
 public class Dl4jPosTagger
     extends JCasAnnotator_ImplBase
@@ -56,17 +60,57 @@ public class Dl4jPosTagger
     @ConfigurationParameter(name = PARAM_MODEL_LOCATION, mandatory = true)
     private File targetModelLocation;
 
+    /**
+     * The word embeddings used when training the model. Not needed if the model is a bundle
+     * created by {@link Dl4jPosTaggerBundler}, which already contains the embeddings.
+     */
     public static final String PARAM_EMBEDDINGS_LOCATION = "embeddingsLocation";
     @ConfigurationParameter(name = PARAM_EMBEDDINGS_LOCATION, mandatory = false)
     private File embeddingsLocation;
 
+    /**
+     * Number of sentences tagged in a single pass through the network. Sentences are sorted by
+     * length before they are grouped into batches, so little padding is needed. The default of
+     * {@code 1} tags every sentence separately.
+     */
+    public static final String PARAM_BATCH_SIZE = "batchSize";
+    @ConfigurationParameter(name = PARAM_BATCH_SIZE, mandatory = false, defaultValue="1")
+    private int batchSize;
+
+    /**
+     * Number of tokens by which consecutive windows overlap when a sentence is longer than the
+     * network was trained for. Such sentences are tagged in overlapping windows and every token
+     * takes its tag from the window in which it has the most context.
+     */
+    public static final String PARAM_WINDOW_OVERLAP = "windowOverlap";
+    @ConfigurationParameter(name = PARAM_WINDOW_OVERLAP, mandatory = false, defaultValue="32")
+    private int windowOverlap;
+
+    /**
+     * Number of words whose vectors are kept decoded in memory, so frequent words need neither a
+     * vocabulary lookup nor a read from the embeddings file. The default of {@code 0} disables the
+     * cache.
+     */
+    public static final String PARAM_CACHE_SIZE = "cacheSize";
+    @ConfigurationParameter(name = PARAM_CACHE_SIZE, mandatory = false, defaultValue="0")
+    private int cacheSize;
+
+    /**
+     * Which words to drop when the cache is full: {@code LRU} drops the least recently used word,
+     * {@code LFU} one of the least frequently used words.
+     */
+    public static final String PARAM_CACHE_POLICY = "cachePolicy";
+    @ConfigurationParameter(name = PARAM_CACHE_POLICY, mandatory = false, defaultValue="LRU")
+    private String cachePolicy;
+
     // Model information
     private MultiLayerNetwork net;
     private BinaryVectorizer wordVectors;
+    private WordEmbeddings embeddings;
+    private WordVectorCache cache;
     private int truncateLength = 150;
     private int maxTagsetSize = 70;
-
-    private Vectorize vectorize;
+    private String[] tagset;
     
     @Override
     public void initialize(UimaContext aContext)
@@ -74,20 +118,27 @@ public class Dl4jPosTagger
     {
         super.initialize(aContext);
 
-        vectorize = new Vectorize();
+        if (batchSize < 1) {
+            throw new ResourceInitializationException(new IllegalArgumentException(
+                    "Batch size must be at least 1 but was [" + batchSize + "]"));
+        }
         
-        try (ZipFile archive = new ZipFile(targetModelLocation)) {
-            // Read tagset
-            try (InputStream content = archive.getInputStream(archive.getEntry("tagset.txt"))) {
-                List<String> tagset = IOUtils.readLines(content, StandardCharsets.UTF_8);
-                vectorize = new Vectorize(tagset.toArray(new String[tagset.size()]));
-            }
-
-            // Read model
-            try (InputStream content = archive.getInputStream(archive.getEntry("model.zip"))) {
-                net = ModelSerializer.restoreMultiLayerNetwork(content);
-                net.init();
-            }
+        if (windowOverlap < 0 || windowOverlap >= truncateLength) {
+            throw new ResourceInitializationException(new IllegalArgumentException(
+                    "Window overlap must be in [0, " + truncateLength + ") but was ["
+                            + windowOverlap + "]"));
+        }
+        
+        if (cacheSize > 0 && !"LRU".equals(cachePolicy) && !"LFU".equals(cachePolicy)) {
+            throw new ResourceInitializationException(new IllegalArgumentException(
+                    "Unknown cache policy [" + cachePolicy + "]"));
+        }
+        
+        // Parameters are shared with other instances using the same model
+        try {
+            ModelArchive model = ModelCache.acquire(targetModelLocation);
+            tagset = model.getTagset();
+            net = model.getNetwork();
         }
         catch (IOException e) {
             throw new ResourceInitializationException(e);
@@ -95,11 +146,47 @@ public class Dl4jPosTagger
         
         // Embeddings
         try {
-            wordVectors = BinaryVectorizer.load(embeddingsLocation.toPath());
+            if (embeddingsLocation != null) {
+                wordVectors = BinaryVectorizerRegistry.acquire(embeddingsLocation.toPath());
+            }
+            else {
+                long offset = ModelArchive.getEmbeddingsOffset(targetModelLocation);
+                if (offset < 0) {
+                    throw new ResourceInitializationException(new IllegalArgumentException(
+                            "No embeddings specified and model [" + targetModelLocation
+                                    + "] is not a bundle"));
+                }
+                wordVectors = BinaryVectorizerRegistry.acquire(targetModelLocation.toPath(),
+                        offset);
+            }
         }
         catch (IOException e) {
             throw new ResourceInitializationException(e);
         }
+        finally {
+            // destroy() is not called if initialization fails, so do not leak the shared model
+            if (wordVectors == null) {
+                ModelCache.release(net);
+                net = null;
+            }
+        }
+        
+        // Cache of frequent words - owned by this instance, the vectorizer itself is shared
+        embeddings = wordVectors;
+        if (cacheSize > 0) {
+            switch (cachePolicy) {
+            case "LRU":
+                cache = new WordVectorCache(wordVectors, cacheSize, LruPolicy::new);
+                break;
+            case "LFU":
+                cache = new WordVectorCache(wordVectors, cacheSize, LfuPolicy::new);
+                break;
+            default:
+                // Rejected above before anything was acquired
+                throw new IllegalStateException("Unknown cache policy [" + cachePolicy + "]");
+            }
+            embeddings = cache;
+        }
     }
 
     @Override
@@ -108,37 +195,193 @@ public class Dl4jPosTagger
     {
         List<List<Token>> sentences = new ArrayList<>();
         for (Sentence s : select(aJCas, Sentence.class)) {
-            sentences.add(selectCovered(Token.class, s));
+            List<Token> tokens = selectCovered(Token.class, s);
+            if (!tokens.isEmpty()) {
+                sentences.add(tokens);
+            }
+        }
+        
+        // Sentences longer than the network can handle are split into overlapping windows
+        List<Window> windows = new ArrayList<>();
+        for (int s = 0; s < sentences.size(); s++) {
+            List<Token> sentence = sentences.get(s);
+            for (int start : windowStarts(sentence.size(), truncateLength, windowOverlap)) {
+                windows.add(new Window(s, start, sentence.subList(start,
+                        Math.min(start + truncateLength, sentence.size()))));
+            }
+        }
+        
+        // Group windows of similar length into the same batch to minimize padding
+        if (batchSize > 1) {
+            windows.sort(comparingInt(w -> w.tokens.size()));
         }
 
+        int[][] sentenceTagIdxs = new int[sentences.size()][];
+        for (int s = 0; s < sentences.size(); s++) {
+            sentenceTagIdxs[s] = new int[sentences.get(s).size()];
+        }
+        
         try {
-            // Process sentence-by-sentence
-            for (List<Token> sentence : sentences) {
+            // Process batch-by-batch
+            for (int b = 0; b < windows.size(); b += batchSize) {
+                List<Window> batch = windows.subList(b, Math.min(b + batchSize, windows.size()));
+                List<List<Token>> batchTokens = new ArrayList<>(batch.size());
+                for (Window w : batch) {
+                    batchTokens.add(w.tokens);
+                }
+                
                 // Vectorize data
-                DataSet data = new Vectorize().vectorize(asList(sentence), wordVectors,
+                DataSet data = new Vectorize().vectorize(batchTokens, embeddings,
                         truncateLength, maxTagsetSize, false);
 
                 // Predict labels
                 INDArray predicted = net.output(data.getFeatures(), false,
                         data.getFeaturesMaskArray(), data.getLabelsMaskArray());
+                int[] lengths = batchTokens.stream().mapToInt(List::size).toArray();
+                int[][] tagIdxs = decodeTags(predicted, lengths);
                 
-                int i = 0;
-                String[] tagset = vectorize.getTagset();
-                for (Token t : sentence) {
-                    int tagIdx = Nd4j.argMax(predicted, 1).getInt(i);
-                    
-                    // Create UIMA annotation
-                    POS pos = new POS(aJCas, t.getBegin(), t.getEnd());
-                    pos.setPosValue(tagset[tagIdx]);
-                    pos.addToIndexes();
-                    t.setPos(pos);
-                    
-                    i++;
+                // Stitch the windows back together
+                for (int w = 0; w < batch.size(); w++) {
+                    Window window = batch.get(w);
+                    stitch(tagIdxs[w], window.start, windowOverlap,
+                            sentenceTagIdxs[window.sentence]);
                 }
             }
         }
         catch (IOException e) {
             throw new AnalysisEngineProcessException(e);
         }
+        
+        for (int s = 0; s < sentences.size(); s++) {
+            int i = 0;
+            for (Token t : sentences.get(s)) {
+                // Create UIMA annotation
+                POS pos = new POS(aJCas, t.getBegin(), t.getEnd());
+                pos.setPosValue(tagset[sentenceTagIdxs[s][i]]);
+                pos.addToIndexes();
+                t.setPos(pos);
+                
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Tile a sequence into windows of the given size which overlap by the given number of
+     * positions. The last window may be shorter than the others. A sequence which fits into a
+     * single window yields only the window starting at {@code 0}.
+     *
+     * @return the start positions of the windows.
+     */
+    static int[] windowStarts(int aLength, int aWindowSize, int aOverlap)
+    {
+        int stride = aWindowSize - aOverlap;
+        int count = 1;
+        if (aLength > aWindowSize) {
+            count += (aLength - aWindowSize + stride - 1) / stride;
+        }
+        
+        int[] starts = new int[count];
+        for (int i = 0; i < count; i++) {
+            starts[i] = i * stride;
+        }
+        return starts;
+    }
+
+    /**
+     * Copy the tags predicted for a window into the tags of the whole sequence. Where two windows
+     * overlap, the first half of the overlap is taken from the earlier window and the second half
+     * from the later one, so each position is tagged by the window in which it is farther from
+     * the edge. The result does not depend on the order in which the windows are stitched.
+     *
+     * @param aWindowTagIdxs
+     *            the tags predicted for the window.
+     * @param aStart
+     *            the position of the window within the sequence.
+     * @param aOverlap
+     *            the overlap between consecutive windows.
+     * @param aTagIdxs
+     *            the tags of the whole sequence.
+     */
+    static void stitch(int[] aWindowTagIdxs, int aStart, int aOverlap, int[] aTagIdxs)
+    {
+        int from = aStart > 0 ? aOverlap / 2 : 0;
+        int to = aWindowTagIdxs.length;
+        if (aStart + to < aTagIdxs.length) {
+            to -= aOverlap - aOverlap / 2;
+        }
+        System.arraycopy(aWindowTagIdxs, from, aTagIdxs, aStart + from, to - from);
+    }
+
+    /**
+     * Determine the best-scoring tag at every position of every sequence in a batch. The argmax
+     * over the tag dimension is computed once for the whole batch and the result is read out in
+     * bulk rather than scalar by scalar.
+     *
+     * @param aPredicted
+     *            network output of the shape [sequences, tags, positions].
+     * @param aLengths
+     *            the number of positions to decode for each sequence.
+     * @return the tag indexes per sequence and position.
+     */
+    static int[][] decodeTags(INDArray aPredicted, int[] aLengths)
+    {
+        int positions = (int) aPredicted.size(2);
+        
+        // [sequences, tags, positions] -> [sequences, positions] in row-major order
+        int[] best = Nd4j.argMax(aPredicted, 1).dup('c').data().asInt();
+        
+        int[][] tagIdxs = new int[aLengths.length][];
+        for (int s = 0; s < aLengths.length; s++) {
+            int start = s * positions;
+            tagIdxs[s] = Arrays.copyOfRange(best, start,
+                    start + Math.min(aLengths[s], positions));
+        }
+        return tagIdxs;
+    }
+
+    private static class Window
+    {
+        final int sentence;
+        final int start;
+        final List<Token> tokens;
+
+        Window(int aSentence, int aStart, List<Token> aTokens)
+        {
+            sentence = aSentence;
+            start = aStart;
+            tokens = aTokens;
+        }
+    }
+
+    @Override
+    public void collectionProcessComplete()
+        throws AnalysisEngineProcessException
+    {
+        if (cache != null) {
+            getLogger().info(String.format(Locale.US,
+                    "Embeddings cache: %d hits, %d misses, hit rate %.3f", cache.getHits(),
+                    cache.getMisses(), cache.getHitRate()));
+        }
+        
+        super.collectionProcessComplete();
+    }
+
+    @Override
+    public void destroy()
+    {
+        if (net != null) {
+            ModelCache.release(net);
+            net = null;
+        }
+        
+        if (wordVectors != null) {
+            BinaryVectorizerRegistry.release(wordVectors);
+            wordVectors = null;
+            embeddings = null;
+            cache = null;
+        }
+        
+        super.destroy();
     }
 }
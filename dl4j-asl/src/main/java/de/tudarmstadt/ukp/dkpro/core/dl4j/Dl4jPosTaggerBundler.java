@@ -0,0 +1,155 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j;
+
+import static org.apache.uima.fit.util.JCasUtil.select;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.IntStream;
+
+import org.apache.uima.UimaContext;
+import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
+import org.apache.uima.fit.component.JCasAnnotator_ImplBase;
+import org.apache.uima.fit.descriptor.ConfigurationParameter;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.ResourceInitializationException;
+
+import de.tudarmstadt.ukp.dkpro.core.api.parameter.ComponentParameters;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryVectorizerRegistry;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.BinaryVectorizer;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.ModelArchive;
+
+/**
+ * Packages a trained tagger model for deployment. The embeddings are pruned to the words which
+ * occur most frequently in the processed corpus and are written into a single bundle together
+ * with the network and the tagset. All other words are tagged using the UNK vector, just like
+ * words which are not in the embeddings at all. The bundle can be passed to {@link Dl4jPosTagger}
+ * as model without separate embeddings.
+ */
+public class Dl4jPosTaggerBundler
+    extends JCasAnnotator_ImplBase
+{
+    public static final String PARAM_MODEL_LOCATION = ComponentParameters.PARAM_MODEL_LOCATION;
+    @ConfigurationParameter(name = PARAM_MODEL_LOCATION, mandatory = true)
+    private File modelLocation;
+
+    public static final String PARAM_EMBEDDINGS_LOCATION = "embeddingsLocation";
+    @ConfigurationParameter(name = PARAM_EMBEDDINGS_LOCATION, mandatory = true)
+    private File embeddingsLocation;
+
+    public static final String PARAM_TARGET_LOCATION = ComponentParameters.PARAM_TARGET_LOCATION;
+    @ConfigurationParameter(name = PARAM_TARGET_LOCATION, mandatory = true)
+    private File targetLocation;
+
+    /**
+     * Maximum number of words to keep from the embeddings. Words which do not occur in the corpus
+     * are never kept. Must be at least {@code 1}.
+     */
+    public static final String PARAM_VOCABULARY_SIZE = "vocabularySize";
+    @ConfigurationParameter(name = PARAM_VOCABULARY_SIZE, mandatory = true, defaultValue="100000")
+    private int vocabularySize;
+
+    private BinaryVectorizer wordVectors;
+    
+    // Frequency of every word in the vocabulary of the embeddings
+    private int[] counts;
+    
+    @Override
+    public void initialize(UimaContext aContext)
+        throws ResourceInitializationException
+    {
+        super.initialize(aContext);
+        
+        if (vocabularySize < 1) {
+            throw new ResourceInitializationException(new IllegalArgumentException(
+                    "Vocabulary size must be at least 1 but was [" + vocabularySize + "]"));
+        }
+        
+        try {
+            wordVectors = BinaryVectorizerRegistry.acquire(embeddingsLocation.toPath());
+        }
+        catch (IOException e) {
+            throw new ResourceInitializationException(e);
+        }
+        
+        counts = new int[wordVectors.getVocabulary().size()];
+    }
+
+    @Override
+    public void process(JCas aJCas)
+        throws AnalysisEngineProcessException
+    {
+        for (Token t : select(aJCas, Token.class)) {
+            int index = wordVectors.indexOf(t.getCoveredText());
+            if (index >= 0) {
+                counts[index]++;
+            }
+        }
+    }
+
+    @Override
+    public void collectionProcessComplete()
+        throws AnalysisEngineProcessException
+    {
+        int[] keep = IntStream.range(0, counts.length)
+                .filter(i -> counts[i] > 0)
+                .boxed()
+                .sorted((a, b) -> Integer.compare(counts[b], counts[a]))
+                .limit(vocabularySize)
+                .mapToInt(Integer::intValue)
+                .toArray();
+        
+        getLogger().info("Keeping " + keep.length + " of " + counts.length + " words...");
+        
+        Path pruned = null;
+        try {
+            pruned = Files.createTempFile("dl4j-postagger", ".dl4jw2v");
+            BinaryWordVectorSerializer.prune(wordVectors, keep, pruned);
+            ModelArchive.writeBundle(targetLocation, modelLocation, pruned);
+        }
+        catch (IOException e) {
+            throw new AnalysisEngineProcessException(e);
+        }
+        finally {
+            if (pruned != null) {
+                try {
+                    Files.deleteIfExists(pruned);
+                }
+                catch (IOException e) {
+                    getLogger().warn("Unable to remove temporary embeddings [" + pruned + "]", e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void destroy()
+    {
+        if (wordVectors != null) {
+            BinaryVectorizerRegistry.release(wordVectors);
+            wordVectors = null;
+        }
+        
+        super.destroy();
+    }
+}
@@ -17,34 +17,37 @@
  */
 package de.tudarmstadt.ukp.dkpro.core.dl4j;
 
-import static java.util.Arrays.asList;
 import static org.apache.uima.fit.util.JCasUtil.select;
 import static org.apache.uima.fit.util.JCasUtil.selectCovered;
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
-import org.apache.commons.compress.archivers.ArchiveOutputStream;
-import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
-import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
-import org.apache.commons.io.output.CloseShieldOutputStream;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
 import org.apache.uima.UimaContext;
 import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
 import org.apache.uima.fit.component.JCasAnnotator_ImplBase;
 import org.apache.uima.fit.descriptor.ConfigurationParameter;
 import org.apache.uima.jcas.JCas;
 import org.apache.uima.resource.ResourceInitializationException;
-import org.deeplearning4j.datasets.iterator.impl.ListDataSetIterator;
 import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
-import org.deeplearning4j.util.ModelSerializer;
-import org.nd4j.linalg.dataset.DataSet;
+import org.deeplearning4j.parallelism.ParallelWrapper;
 import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
 import de.tudarmstadt.ukp.dkpro.core.api.parameter.ComponentParameters;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryVectorizerRegistry;
 import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.BinaryVectorizer;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.CheckpointWriter;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.EncodedSentence;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.ModelArchive;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.PrefetchingIterator;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.SentenceBatchIterator;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.SentenceListIterator;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.SentenceSpool;
 import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.Vectorize;
 
 public class Dl4jPosTaggerTrainer
@@ -78,15 +81,108 @@ public class Dl4jPosTaggerTrainer
     @ConfigurationParameter(name = PARAM_BATCH_SIZE, mandatory = false, defaultValue="25")
     private int batchSize;
 
+    /**
+     * Rebuild the mini-batches for every epoch, grouping sentences of similar length into the
+     * same batch and randomizing the order of the batches.
+     */
     public static final String PARAM_EPOCH_SHUFFLE = "epochShuffle";
     @ConfigurationParameter(name = PARAM_EPOCH_SHUFFLE, mandatory = true, defaultValue="true")
     private boolean epochShuffle;
 
+    /**
+     * Write the training data to a temporary file instead of keeping it in memory. Training then
+     * streams it back from disk, so the size of the training corpus is not limited by the heap.
+     */
+    public static final String PARAM_SPOOL_TO_DISK = "spoolToDisk";
+    @ConfigurationParameter(name = PARAM_SPOOL_TO_DISK, mandatory = true, defaultValue="false")
+    private boolean spoolToDisk;
+
+    /**
+     * Number of mini-batches assembled ahead of time on background threads while the network is
+     * training. With {@code 0}, batches are assembled when the network asks for them.
+     */
+    public static final String PARAM_PREFETCH_BATCHES = "prefetchBatches";
+    @ConfigurationParameter(name = PARAM_PREFETCH_BATCHES, mandatory = true, defaultValue="0")
+    private int prefetchBatches;
+
+    /**
+     * Number of background threads assembling mini-batches when prefetching is enabled.
+     */
+    public static final String PARAM_PREFETCH_WORKERS = "prefetchWorkers";
+    @ConfigurationParameter(name = PARAM_PREFETCH_WORKERS, mandatory = true, defaultValue="1")
+    private int prefetchWorkers;
+
+    /**
+     * Number of model replicas trained in parallel on different mini-batches. With more than one
+     * worker, the replicas are trained using data-parallel parameter averaging. Use the number of
+     * CPU cores to make use of the whole machine.
+     */
+    public static final String PARAM_TRAINING_WORKERS = "trainingWorkers";
+    @ConfigurationParameter(name = PARAM_TRAINING_WORKERS, mandatory = true, defaultValue="1")
+    private int trainingWorkers;
+
+    /**
+     * Number of mini-batches each worker processes before the parameters of the replicas are
+     * averaged. Only used with more than one training worker. Must be at least {@code 1}.
+     */
+    public static final String PARAM_AVERAGING_FREQUENCY = "averagingFrequency";
+    @ConfigurationParameter(name = PARAM_AVERAGING_FREQUENCY, mandatory = true, defaultValue="3")
+    private int averagingFrequency;
+
+    /**
+     * Location to which checkpoints are written during training. A checkpoint has the same layout
+     * as the final model and additionally records the training progress. If not set, no
+     * checkpoints are written.
+     */
+    public static final String PARAM_CHECKPOINT_LOCATION = "checkpointLocation";
+    @ConfigurationParameter(name = PARAM_CHECKPOINT_LOCATION, mandatory = false)
+    private File checkpointLocation;
+
+    /**
+     * Number of epochs between two checkpoints. Must be at least {@code 1}.
+     */
+    public static final String PARAM_CHECKPOINT_FREQUENCY = "checkpointFrequency";
+    @ConfigurationParameter(name = PARAM_CHECKPOINT_FREQUENCY, mandatory = true, defaultValue="1")
+    private int checkpointFrequency;
+
+    /**
+     * Continue training from the checkpoint if one exists. The training data must be the same as
+     * for the interrupted run.
+     */
+    public static final String PARAM_RESUME = "resume";
+    @ConfigurationParameter(name = PARAM_RESUME, mandatory = true, defaultValue="false")
+    private boolean resume;
+
+    /**
+     * Fraction of the sentences held out from training to measure the accuracy of the network
+     * after each epoch. With {@code 0}, all sentences are used for training and training always
+     * runs for the configured number of epochs. Must be in {@code [0, 1)}.
+     */
+    public static final String PARAM_HELD_OUT_FRACTION = "heldOutFraction";
+    @ConfigurationParameter(name = PARAM_HELD_OUT_FRACTION, mandatory = true, defaultValue="0.0")
+    private double heldOutFraction;
+
+    /**
+     * Number of epochs without improvement on the held-out data after which training stops. The
+     * network from the best epoch is written as the final model. Must be at least {@code 1}.
+     */
+    public static final String PARAM_PATIENCE = "patience";
+    @ConfigurationParameter(name = PARAM_PATIENCE, mandatory = true, defaultValue="3")
+    private int patience;
+
     private BinaryVectorizer wordVectors;
     private MultiLayerConfiguration conf;
     private Vectorize vectorize;
     
-    private List<DataSet> trainingData;
+    // Sentences are kept as word and tag indexes, the dense features are only created per batch
+    private List<EncodedSentence> trainingData;
+    private SentenceSpool spool;
+    
+    // The held-out data is always kept in memory - it is only a small part of the corpus
+    private List<EncodedSentence> heldOutData;
+    private Random heldOutSelection;
+    
+    private ModelArchive checkpoint;
 
     @Override
     public void initialize(UimaContext aContext)
@@ -94,16 +190,84 @@ public class Dl4jPosTaggerTrainer
     {
         super.initialize(aContext);
 
+        if (heldOutFraction < 0.0 || heldOutFraction >= 1.0) {
+            throw new ResourceInitializationException(new IllegalArgumentException(
+                    "Held-out fraction must be in [0, 1) but was [" + heldOutFraction + "]"));
+        }
+        
+        if (patience < 1) {
+            throw new ResourceInitializationException(new IllegalArgumentException(
+                    "Patience must be at least 1 but was [" + patience + "]"));
+        }
+        
+        if (checkpointFrequency < 1) {
+            throw new ResourceInitializationException(new IllegalArgumentException(
+                    "Checkpoint frequency must be at least 1 but was [" + checkpointFrequency
+                            + "]"));
+        }
+        
+        if (prefetchBatches < 0) {
+            throw new ResourceInitializationException(new IllegalArgumentException(
+                    "Number of prefetched batches must not be negative but was ["
+                            + prefetchBatches + "]"));
+        }
+        
+        if (prefetchWorkers < 1) {
+            throw new ResourceInitializationException(new IllegalArgumentException(
+                    "Number of prefetch workers must be at least 1 but was [" + prefetchWorkers
+                            + "]"));
+        }
+        
+        if (trainingWorkers < 1) {
+            throw new ResourceInitializationException(new IllegalArgumentException(
+                    "Number of training workers must be at least 1 but was [" + trainingWorkers
+                            + "]"));
+        }
+        
+        if (averagingFrequency < 1) {
+            throw new ResourceInitializationException(new IllegalArgumentException(
+                    "Averaging frequency must be at least 1 but was [" + averagingFrequency
+                            + "]"));
+        }
+
         trainingData = new ArrayList<>();
+        heldOutData = new ArrayList<>();
+        // Fixed seed so the same sentences are held out when training is resumed
+        heldOutSelection = new Random(12345L);
+        
+        if (spoolToDisk) {
+            try {
+                File spoolFile = File.createTempFile("dl4j-postagger", ".spool");
+                spoolFile.deleteOnExit();
+                spool = new SentenceSpool(spoolFile);
+            }
+            catch (IOException e) {
+                throw new ResourceInitializationException(e);
+            }
+        }
 
-        vectorize = new Vectorize();
+        if (resume && checkpointLocation != null && checkpointLocation.exists()) {
+            try {
+                getLogger().info("Loading checkpoint...");
+                checkpoint = ModelArchive.read(checkpointLocation, true);
+            }
+            catch (IOException e) {
+                throw new ResourceInitializationException(e);
+            }
+            
+            // Tags must map to the same network outputs as before
+            vectorize = new Vectorize(checkpoint.getTagset());
+        }
+        else {
+            vectorize = new Vectorize();
+        }
 
         getLogger().info("Loading network configuration...");
         conf = MultiLayerConfiguration.fromJson(network);
     
         try {
             getLogger().info("Loading embeddings...");
-            wordVectors = BinaryVectorizer.load(embeddingsLocation.toPath());
+            wordVectors = BinaryVectorizerRegistry.acquire(embeddingsLocation.toPath());
         }
         catch (IOException e) {
             throw new ResourceInitializationException(e);
@@ -116,14 +280,26 @@ public class Dl4jPosTaggerTrainer
     {
         List<List<Token>> sentences = new ArrayList<>();
         for (Sentence s : select(aJCas, Sentence.class)) {
-            sentences.add(selectCovered(Token.class, s));
+            List<Token> tokens = selectCovered(Token.class, s);
+            if (!tokens.isEmpty()) {
+                sentences.add(tokens);
+            }
         }
 
         // Add sentence-by-sentence
         for (List<Token> sentence : sentences) {
             try {
-                trainingData.add(vectorize.vectorize(asList(sentence), wordVectors, truncateLength,
-                        maxTagsetSize, true));
+                EncodedSentence data = vectorize.encode(sentence, wordVectors, truncateLength,
+                        maxTagsetSize);
+                if (heldOutSelection.nextDouble() < heldOutFraction) {
+                    heldOutData.add(data);
+                }
+                else if (spool != null) {
+                    spool.add(data);
+                }
+                else {
+                    trainingData.add(data);
+                }
             }
             catch (IOException e) {
                 throw new AnalysisEngineProcessException(e);
@@ -135,41 +311,184 @@ public class Dl4jPosTaggerTrainer
     public void collectionProcessComplete()
         throws AnalysisEngineProcessException
     {
-        // Instantiate NN from configuration
-        MultiLayerNetwork net = new MultiLayerNetwork(conf);
-        net.init();
+        // Instantiate NN from configuration or continue with the checkpoint
+        MultiLayerNetwork net;
+        int firstEpoch = 0;
+        if (checkpoint != null) {
+            net = checkpoint.getNetwork();
+            firstEpoch = Integer.parseInt(
+                    checkpoint.getState().getProperty(CheckpointWriter.PROP_EPOCH, "0"));
+            checkpoint = null;
+            getLogger().info("Resuming training after epoch " + firstEpoch + "...");
+        }
+        else {
+            net = new MultiLayerNetwork(conf);
+            net.init();
+        }
         
         // Nice web-based interface to watch NN parameters as they train
         //net.setListeners(new ScoreIterationListener(1), new HistogramIterationListener(1, true));
 
         // Perform the actual training
-        for (int i = 0; i < nEpochs; i++) {
-            DataSetIterator train = new ListDataSetIterator(trainingData, batchSize);
-            net.fit(train);
-        }
-
-        try (ArchiveOutputStream archive = new ZipArchiveOutputStream(targetLocation)) {
-            // Write tagset
-            {
-                ZipArchiveEntry entry = new ZipArchiveEntry("tagset.txt");
-                archive.putArchiveEntry(entry);
-                for (String tag : vectorize.getTagset()) {
-                    archive.write(tag.getBytes(StandardCharsets.UTF_8));
-                    archive.write("\n".getBytes(StandardCharsets.UTF_8));
+        if (spool != null) {
+            try {
+                spool.finish();
+            }
+            catch (IOException e) {
+                throw new AnalysisEngineProcessException(e);
+            }
+            getLogger().info(
+                    "Training from " + spool.getSentenceCount() + " spooled sentences...");
+        }
+        
+        SentenceBatchIterator sentences = spool != null
+                ? spool.iterator(wordVectors, batchSize, maxTagsetSize)
+                : new SentenceListIterator(trainingData, wordVectors, batchSize, maxTagsetSize);
+        // Optionally assemble the next batches while the network trains on the current one
+        PrefetchingIterator prefetcher = null;
+        DataSetIterator train = sentences;
+        if (prefetchBatches > 0) {
+            prefetcher = new PrefetchingIterator(sentences, prefetchBatches, prefetchWorkers);
+            train = prefetcher;
+        }
+        
+        // Optionally train multiple replicas in parallel. The wrapper needs a few batches in
+        // its queue to keep all workers busy.
+        ParallelWrapper wrapper = null;
+        if (trainingWorkers > 1) {
+            getLogger().info("Training on " + trainingWorkers + " workers...");
+            wrapper = new ParallelWrapper.Builder<>(net)
+                    .workers(trainingWorkers)
+                    .averagingFrequency(averagingFrequency)
+                    .prefetchBuffer(Math.max(prefetchBatches, trainingWorkers * 2))
+                    .reportScoreAfterAveraging(true)
+                    .build();
+        }
+        
+        // Held-out data is batched by length as well to keep the forward passes cheap
+        SentenceBatchIterator heldOut = null;
+        if (!heldOutData.isEmpty()) {
+            getLogger().info("Holding out " + heldOutData.size() + " sentences...");
+            heldOut = new SentenceListIterator(heldOutData, wordVectors, batchSize,
+                    maxTagsetSize);
+            heldOut.setShuffle(new Random(0L));
+        }
+        MultiLayerNetwork best = null;
+        double bestAccuracy = -1.0;
+        int bestEpoch = 0;
+        int epochsWithoutImprovement = 0;
+        int lastEpoch = firstEpoch;
+        
+        try (CheckpointWriter checkpointWriter = checkpointLocation != null
+                ? new CheckpointWriter(checkpointLocation) : null) {
+            for (int i = firstEpoch; i < nEpochs; i++) {
+                // Fixed seed per epoch so that a resumed run batches the remaining epochs exactly
+                // like an uninterrupted one
+                if (epochShuffle) {
+                    sentences.setShuffle(new Random(12345L + i));
+                }
+                
+                long start = System.nanoTime();
+                train.reset();
+                if (wrapper != null) {
+                    wrapper.fit(train);
+                }
+                else {
+                    net.fit(train);
+                }
+                long trainTime = System.nanoTime() - start;
+                lastEpoch = i + 1;
+                
+                // Metrics are logged as key=value pairs so they can easily be extracted
+                StringBuilder metrics = new StringBuilder();
+                metrics.append(String.format(Locale.US,
+                        "epoch=%d wallTimeMs=%d tokens=%d padding=%.4f tokensPerSec=%.0f",
+                        i + 1, trainTime / 1_000_000, sentences.getTokenCount(),
+                        sentences.getPaddingRatio(),
+                        sentences.getTokenCount() / (trainTime / 1_000_000_000.0)));
+                
+                if (heldOut != null) {
+                    start = System.nanoTime();
+                    heldOut.reset();
+                    double accuracy = net.evaluate(heldOut).accuracy();
+                    long evalTime = System.nanoTime() - start;
+                    metrics.append(String.format(Locale.US,
+                            " validationAccuracy=%.4f validationTokensPerSec=%.0f", accuracy,
+                            heldOut.getTokenCount() / (evalTime / 1_000_000_000.0)));
+                    
+                    if (accuracy > bestAccuracy) {
+                        bestAccuracy = accuracy;
+                        best = net.clone();
+                        bestEpoch = i + 1;
+                        epochsWithoutImprovement = 0;
+                    }
+                    else {
+                        epochsWithoutImprovement++;
+                    }
+                }
+                
+                getLogger().info(metrics.toString());
+                
+                if (checkpointWriter != null && (i + 1) % checkpointFrequency == 0) {
+                    checkpointWriter.write(net, vectorize.getTagset(), i + 1);
+                }
+                
+                if (heldOut != null && epochsWithoutImprovement >= patience) {
+                    getLogger().info("No improvement for " + patience
+                            + " epochs - stopping early");
+                    break;
                 }
-                archive.closeArchiveEntry();
             }
-            
-            // Write model
-            {
-                ZipArchiveEntry entry = new ZipArchiveEntry("model.zip");
-                archive.putArchiveEntry(entry);
-                ModelSerializer.writeModel(net, new CloseShieldOutputStream(archive), true);
-                archive.closeArchiveEntry();
+        }
+        catch (IOException e) {
+            throw new AnalysisEngineProcessException(e);
+        }
+        finally {
+            if (wrapper != null) {
+                wrapper.shutdown();
+            }
+            if (prefetcher != null) {
+                prefetcher.close();
             }
         }
+
+        if (best != null) {
+            getLogger().info(String.format(Locale.US, "Keeping the best model (accuracy=%.4f)",
+                    bestAccuracy));
+            net = best;
+            lastEpoch = bestEpoch;
+        }
+        
+        // Record which epoch the written network stems from
+        Properties state = new Properties();
+        state.setProperty(CheckpointWriter.PROP_EPOCH, String.valueOf(lastEpoch));
+        
+        try {
+            ModelArchive.write(targetLocation, net, vectorize.getTagset(), true, state);
+        }
         catch (IOException e) {
             throw new AnalysisEngineProcessException(e);
         }
     }
+
+    @Override
+    public void destroy()
+    {
+        if (spool != null) {
+            try {
+                spool.close();
+            }
+            catch (IOException e) {
+                getLogger().warn("Unable to remove spooled training data", e);
+            }
+            spool = null;
+        }
+        
+        if (wordVectors != null) {
+            BinaryVectorizerRegistry.release(wordVectors);
+            wordVectors = null;
+        }
+        
+        super.destroy();
+    }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.feature;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Prefixes or suffixes of a word, e.g. inflectional endings. Every affix length from {@code 1} up
+ * to a maximum gets its own block of components, and the lower-cased affix is hashed into one of
+ * the components of its block. Words shorter than an affix length leave the block empty. No
+ * affix strings are created, the hashes are computed from the characters of the word.
+ */
+public class AffixFeature
+    implements Feature
+{
+    private final boolean suffix;
+    private final int maxLength;
+    private final int buckets;
+
+    /**
+     * @param aSuffix
+     *            {@code true} for suffixes, {@code false} for prefixes.
+     * @param aMaxLength
+     *            the length of the longest affix.
+     * @param aBuckets
+     *            the number of components per affix length.
+     */
+    public AffixFeature(boolean aSuffix, int aMaxLength, int aBuckets)
+    {
+        if (aMaxLength < 1 || aBuckets < 1) {
+            throw new IllegalArgumentException("Maximum length and buckets must be positive");
+        }
+        
+        suffix = aSuffix;
+        maxLength = aMaxLength;
+        buckets = aBuckets;
+    }
+
+    @Override
+    public INDArray apply(String aWord)
+        throws IOException
+    {
+        INDArray vector = Nd4j.create(1, size());
+        applyInto(Collections.singletonList(aWord), vector.data(), vector.offset(), 0, 1);
+        return vector;
+    }
+
+    @Override
+    public void applyInto(List<String> aWords, DataBuffer aDest, long aOffset, long aWordStride,
+            long aFeatureStride)
+    {
+        for (int t = 0; t < aWords.size(); t++) {
+            String word = aWords.get(t);
+            long offset = aOffset + t * aWordStride;
+            int hash = 0;
+            for (int l = 0; l < Math.min(maxLength, word.length()); l++) {
+                char c = word.charAt(suffix ? word.length() - 1 - l : l);
+                hash = 31 * hash + Character.toLowerCase(c);
+                int component = l * buckets + Math.floorMod(mix(hash), buckets);
+                aDest.put(offset + component * aFeatureStride, 1);
+            }
+        }
+    }
+
+    /**
+     * Spread the bits of the polynomial hash, which otherwise differs little between affixes
+     * sharing their first characters.
+     */
+    private static int mix(int aHash)
+    {
+        int h = aHash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public int size()
+    {
+        return maxLength * buckets;
+    }
+}
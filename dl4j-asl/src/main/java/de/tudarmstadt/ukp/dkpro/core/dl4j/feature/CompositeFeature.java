@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.feature;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Lays out several features one after the other in a single feature vector, e.g. the embeddings
+ * of a word followed by its shape and affixes. Each feature writes its components directly into
+ * its own range of the destination.
+ */
+public class CompositeFeature
+    implements Feature
+{
+    private final Feature[] features;
+    private final int[] offsets;
+    private final int size;
+
+    public CompositeFeature(Feature... aFeatures)
+    {
+        features = aFeatures.clone();
+        offsets = new int[features.length];
+        int total = 0;
+        for (int i = 0; i < features.length; i++) {
+            offsets[i] = total;
+            total += features[i].size();
+        }
+        size = total;
+    }
+
+    public CompositeFeature(List<Feature> aFeatures)
+    {
+        this(aFeatures.toArray(new Feature[aFeatures.size()]));
+    }
+
+    public List<Feature> getFeatures()
+    {
+        return Collections.unmodifiableList(Arrays.asList(features));
+    }
+
+    /**
+     * @return the position of the first component of the given feature within the composite
+     *         feature vector.
+     */
+    public int getOffset(int aFeature)
+    {
+        return offsets[aFeature];
+    }
+
+    @Override
+    public INDArray apply(String aWord)
+        throws IOException
+    {
+        INDArray vector = Nd4j.create(1, size);
+        applyInto(Collections.singletonList(aWord), vector.data(), vector.offset(), 0, 1);
+        return vector;
+    }
+
+    @Override
+    public void applyInto(List<String> aWords, DataBuffer aDest, long aOffset, long aWordStride,
+            long aFeatureStride)
+        throws IOException
+    {
+        for (int i = 0; i < features.length; i++) {
+            features[i].applyInto(aWords, aDest, aOffset + offsets[i] * aFeatureStride,
+                    aWordStride, aFeatureStride);
+        }
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+}
@@ -18,17 +18,20 @@
 package de.tudarmstadt.ukp.dkpro.core.dl4j.feature;
 
 import java.io.IOException;
+import java.util.List;
+
+import org.nd4j.linalg.api.buffer.DataBuffer;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 
-import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.BinaryVectorizer;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.WordEmbeddings;
 
 public class EmbeddingsFeature
     implements Feature
 {
-    private BinaryVectorizer wordVectors;
+    private WordEmbeddings wordVectors;
 
-    public EmbeddingsFeature(BinaryVectorizer aWordVectors)
+    public EmbeddingsFeature(WordEmbeddings aWordVectors)
         throws IOException
     {
         wordVectors = aWordVectors;
@@ -38,7 +41,19 @@ public class EmbeddingsFeature
     public INDArray apply(String aWord)
         throws IOException
     {
-        return Nd4j.create(wordVectors.vectorize(aWord));
+        INDArray vector = Nd4j.create(1, wordVectors.getVectorSize());
+        wordVectors.vectorizeInto(aWord, vector.data(), vector.offset(), 1);
+        return vector;
+    }
+
+    @Override
+    public void applyInto(List<String> aWords, DataBuffer aDest, long aOffset, long aWordStride,
+            long aFeatureStride)
+    {
+        for (int t = 0; t < aWords.size(); t++) {
+            wordVectors.vectorizeInto(aWords.get(t), aDest, aOffset + t * aWordStride,
+                    aFeatureStride);
+        }
     }
 
     @Override
@@ -18,7 +18,9 @@
 package de.tudarmstadt.ukp.dkpro.core.dl4j.feature;
 
 import java.io.IOException;
+import java.util.List;
 
+import org.nd4j.linalg.api.buffer.DataBuffer;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
 public interface Feature
@@ -29,4 +31,27 @@ public interface Feature
 
     int size();
 
+    /**
+     * Write the features of all words of a sentence into the buffer backing a preallocated
+     * tensor, e.g. a slice of the [sentences, features, positions] features tensor. Component
+     * {@code i} of the features of word {@code t} goes to
+     * {@code aOffset + t * aWordStride + i * aFeatureStride}. The destination is zero-initialized,
+     * so only non-zero components need to be written.
+     * <p>
+     * The default implementation goes through {@link #apply(String)}. Features used in
+     * vectorization should override it to write their components directly.
+     */
+    default void applyInto(List<String> aWords, DataBuffer aDest, long aOffset, long aWordStride,
+            long aFeatureStride)
+        throws IOException
+    {
+        for (int t = 0; t < aWords.size(); t++) {
+            INDArray vector = apply(aWords.get(t));
+            long offset = aOffset + t * aWordStride;
+            for (int i = 0; i < size(); i++) {
+                aDest.put(offset + i * aFeatureStride, vector.getFloat(i));
+            }
+        }
+    }
+
 }
\ No newline at end of file
@@ -18,6 +18,9 @@
 package de.tudarmstadt.ukp.dkpro.core.dl4j.feature;
 
 import java.io.IOException;
+import java.util.List;
+
+import org.nd4j.linalg.api.buffer.DataBuffer;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 
@@ -38,6 +41,18 @@ public class ShapeFeature
         return vector;
     }
 
+    @Override
+    public void applyInto(List<String> aWords, DataBuffer aDest, long aOffset, long aWordStride,
+            long aFeatureStride)
+    {
+        for (int t = 0; t < aWords.size(); t++) {
+            String word = aWords.get(t);
+            if (word.length() > 0 && Character.isUpperCase(word.charAt(0))) {
+                aDest.put(aOffset + t * aWordStride + CASE * aFeatureStride, 1);
+            }
+        }
+    }
+
     @Override
     public int size()
     {
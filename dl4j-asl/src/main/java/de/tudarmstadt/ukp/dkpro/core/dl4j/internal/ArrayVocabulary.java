@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+/**
+ * Vocabulary held on the heap. Used for version 1 files which store the words as a sequence of
+ * modified UTF-8 strings that need to be decoded one-by-one anyway.
+ */
+public class ArrayVocabulary
+    implements Vocabulary
+{
+    private final String[] words;
+    private final WordHashIndex index;
+
+    public ArrayVocabulary(String[] aWords)
+    {
+        this(aWords, WordHashIndex.build(aWords));
+    }
+
+    public ArrayVocabulary(String[] aWords, WordHashIndex aIndex)
+    {
+        words = aWords;
+        index = aIndex;
+    }
+
+    @Override
+    public int size()
+    {
+        return words.length;
+    }
+
+    @Override
+    public String get(int aIndex)
+    {
+        return words[aIndex];
+    }
+
+    @Override
+    public int indexOf(String aWord)
+    {
+        return index.lookup(aWord, this);
+    }
+
+    @Override
+    public boolean matches(int aIndex, String aWord)
+    {
+        return words[aIndex].equals(aWord);
+    }
+}
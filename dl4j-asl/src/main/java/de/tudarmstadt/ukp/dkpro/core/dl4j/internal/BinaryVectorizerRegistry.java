@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.BinaryVectorizer;
+
+/**
+ * JVM-wide registry of loaded binary word vectors. All components which use the same embeddings
+ * file share a single {@link BinaryVectorizer}, so the file is opened and mapped only once no
+ * matter how many pipeline threads are running. Since the vectorizer is thread-safe, no further
+ * coordination is needed between the users.
+ * <p>
+ * Every {@link #acquire(Path)} must be matched by a {@link #release(BinaryVectorizer)}, usually
+ * in the {@code destroy()} method of the component. When the last user has released a vectorizer,
+ * it is dropped from the registry and the mapping is freed once the vectorizer is garbage
+ * collected. Like the {@link ModelCache}, the registry takes the modification time of the file into
+ * account, so a file which is rewritten in place is loaded afresh for new users.
+ */
+public final class BinaryVectorizerRegistry
+{
+    private static final Map<String, Entry> ENTRIES = new HashMap<>();
+
+    private BinaryVectorizerRegistry()
+    {
+        // No instances
+    }
+
+    /**
+     * Get the shared vectorizer for the given file, loading it if it is not in use yet.
+     */
+    public static synchronized BinaryVectorizer acquire(Path aPath)
+        throws IOException
+    {
+        return acquire(aPath, 0);
+    }
+
+    /**
+     * Get the shared vectorizer for the vectors starting at the given position of the file.
+     * 
+     * @see BinaryVectorizer#load(Path, long)
+     */
+    public static synchronized BinaryVectorizer acquire(Path aPath, long aOffset)
+        throws IOException
+    {
+        String key = key(aPath, aOffset);
+
+        Entry entry = ENTRIES.get(key);
+        if (entry == null) {
+            entry = new Entry(BinaryVectorizer.load(aPath.toRealPath(), aOffset));
+            ENTRIES.put(key, entry);
+        }
+        entry.references++;
+        return entry.vectorizer;
+    }
+
+    /**
+     * Give up a vectorizer previously obtained through {@link #acquire(Path)}. The caller must
+     * not use the vectorizer afterwards.
+     */
+    public static synchronized void release(BinaryVectorizer aVectorizer)
+    {
+        Iterator<Entry> i = ENTRIES.values().iterator();
+        while (i.hasNext()) {
+            Entry entry = i.next();
+            if (entry.vectorizer == aVectorizer) {
+                entry.references--;
+                if (entry.references == 0) {
+                    i.remove();
+                }
+                return;
+            }
+        }
+        
+        throw new IllegalStateException("Vectorizer is not registered");
+    }
+
+    /**
+     * @return the number of users of the vectorizer for the given file or {@code 0} if it is not
+     *         loaded.
+     */
+    public static synchronized int getReferenceCount(Path aPath)
+        throws IOException
+    {
+        Entry entry = ENTRIES.get(key(aPath, 0));
+        return entry != null ? entry.references : 0;
+    }
+
+    private static String key(Path aPath, long aOffset)
+        throws IOException
+    {
+        // Different paths may point to the same file and a file may be rewritten in place
+        Path path = aPath.toRealPath();
+        return path + "@" + aOffset + "@" + Files.getLastModifiedTime(path).toMillis();
+    }
+
+    private static class Entry
+    {
+        final BinaryVectorizer vectorizer;
+        int references;
+
+        Entry(BinaryVectorizer aVectorizer)
+        {
+            vectorizer = aVectorizer;
+        }
+    }
+}
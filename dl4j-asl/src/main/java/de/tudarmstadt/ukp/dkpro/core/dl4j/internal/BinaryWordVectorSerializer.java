@@ -18,23 +18,30 @@ package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
 import java.io.BufferedOutputStream;
 import java.io.DataInput;
 import java.io.DataOutputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.nd4j.linalg.api.buffer.DataBuffer;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.util.ArrayUtil;
 
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.NearestNeighbors.Neighbor;
+
 /**
  * Utility Methods for working with binary dl4j word vector files
  *
@@ -45,6 +52,9 @@ import org.nd4j.linalg.util.ArrayUtil;
 public class BinaryWordVectorSerializer {
     public static final String UNK = "-=*>UNKNOWN TOKEN<*=-";
     
+    // Size of the buffer used to write the vectors
+    private static final int WRITE_BUFFER_SIZE = 4 * 1024 * 1024;
+    
     // private static final Logger log = LoggerFactory.getLogger(BinaryWordVectorSerializer.class);
 
     public static void convertWordVectorsToBinary(WordVectors wv, Path binaryTarget)
@@ -87,7 +97,7 @@ public class BinaryWordVectorSerializer {
     /**
      * Create a stable random vector for the unknown word.
      */
-    private static INDArray makeUnk(int aSize)
+    static INDArray makeUnk(int aSize)
     {
         return Nd4j.rand(1, aSize, 12345).subi(0.5).divi(aSize);
     }
@@ -96,46 +106,284 @@ public class BinaryWordVectorSerializer {
             Path binaryTarget)
                 throws IOException
     {
-        // Prepare header
-        Header header = new Header();
-        header.version = 1;
-        header.wordCount = wv.vocab().words().size();
-        header.vectorLength = wv.lookupTable().layerSize();
-        header.caseless = aCaseless;
-        header.locale = aLocale.toString();
-        
-        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
-                new FileOutputStream(binaryTarget.toFile())))) {
-            header.write(output);
-            
-            System.out.println("Sorting data...");
-            String[] words = (String[]) wv.vocab().words()
-                    .toArray(new String[wv.vocab().words().size()]);
-            Arrays.sort(words);
-            
-            System.out.println("Writing strings...");
-            for (String word : words) {
-                output.writeUTF(word);
+        convertWordVectorsToBinary(wv, aCaseless, aLocale, VectorEncoding.FLOAT32, binaryTarget);
+    }
+    
+    public static void convertWordVectorsToBinary(WordVectors wv, boolean aCaseless, Locale aLocale,
+            VectorEncoding aEncoding, Path binaryTarget)
+                throws IOException
+    {
+        String[] words = (String[]) wv.vocab().words()
+                .toArray(new String[wv.vocab().words().size()]);
+        
+        Header header = new Header(Header.VERSION, wv.lookupTable().layerSize(), aCaseless,
+                aLocale, aEncoding);
+        
+        // Read the vectors straight from the rows of the weight matrix instead of going through
+        // getWordVector() which creates a double[] copy of each row
+        INDArray weights = wv.lookupTable().getWeights();
+        DataBuffer data = weights.data();
+        long rowStride = weights.stride(0);
+        long columnStride = weights.stride(1);
+        VectorSource source = new VectorSource()
+        {
+            @Override
+            public float[] getVector(String aWord)
+            {
+                float[] vector = new float[header.vectorLength];
+                getVector(aWord, vector);
+                return vector;
             }
-
-            System.out.println("Writing UNK vector...");
+            
+            @Override
+            public void getVector(String aWord, float[] aTarget)
             {
-                INDArray randUnk = makeUnk(header.vectorLength);
-                float[] vector = randUnk.data().asFloat();
-                ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES);
-                FloatBuffer floatBuffer = buffer.asFloatBuffer();
-                floatBuffer.put(vector);
-                output.write(buffer.array());
+                long offset = weights.offset() + wv.vocab().indexOf(aWord) * rowStride;
+                for (int i = 0; i < aTarget.length; i++) {
+                    aTarget[i] = data.getFloat(offset + i * columnStride);
+                }
             }
+        };
+        
+        writeBinary(header, words, source, makeUnk(header.vectorLength).data().asFloat(),
+                binaryTarget);
+    }
 
+    /**
+     * Write a binary word vectors file.
+     * 
+     * @param aHeader
+     *            the header - the word count is set by this method.
+     * @param aWords
+     *            the words to write. The array is sorted in place.
+     * @param aVectors
+     *            provides the vector for each of the words.
+     * @param aUnk
+     *            the vector to use for words which are not in the vocabulary.
+     * @param aTarget
+     *            the file to write.
+     */
+    public static void writeBinary(Header aHeader, String[] aWords, VectorSource aVectors,
+            float[] aUnk, Path aTarget)
+        throws IOException
+    {
+        aHeader.wordCount = aWords.length;
+        
+        System.out.println("Sorting data...");
+        Arrays.sort(aWords);
+        
+        try (FileChannel channel = FileChannel.open(aTarget, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // The stream must not be closed, that would close the channel as well
+            DataOutputStream output = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel)));
+            VectorChecksums checksums = new VectorChecksums();
+            writeHead(output, aHeader, aWords, aUnk, checksums);
+            output.flush();
+
+            // Encode the vectors into a large direct buffer and write them in bulk
             System.out.println("Writing vectors...");
-            for (String word : words) {
-                float[] vector = ArrayUtil.toFloats(wv.getWordVector(word));
-                ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES);
-                FloatBuffer floatBuffer = buffer.asFloatBuffer();
-                floatBuffer.put(vector);
-                output.write(buffer.array());
+            int recordSize = aHeader.encoding.recordSize(aHeader.vectorLength);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(
+                    Math.max(1, WRITE_BUFFER_SIZE / recordSize) * recordSize);
+            float[] vector = new float[aHeader.vectorLength];
+            for (String word : aWords) {
+                if (buffer.remaining() < recordSize) {
+                    writeFully(channel, buffer, checksums);
+                }
+                aVectors.getVector(word, vector);
+                aHeader.encoding.encode(vector, buffer);
             }
+            writeFully(channel, buffer, checksums);
+
+            writeTail(output, aHeader, aWords, checksums);
+            output.flush();
+        }
+    }
+
+    /**
+     * Check a binary word vectors file against the checksums stored in it. Unlike
+     * {@link #verify(WordVectors, Path)}, this does not need the original vectors and checks the
+     * file in parallel.
+     * 
+     * @throws IOException
+     *             if the file does not contain checksums or is corrupted.
+     */
+    public static void verifyChecksums(Path aFile, int aThreads)
+        throws IOException
+    {
+        try (RandomAccessFile file = new RandomAccessFile(aFile.toFile(), "r")) {
+            VectorChecksums.verify(file, 0, aThreads);
+        }
+    }
+
+    /**
+     * Write a binary word vectors file from vectors which have already been encoded and sorted,
+     * e.g. by the {@link StreamingVectorConverter}.
+     * 
+     * @param aHeader
+     *            the header - the word count is set by this method.
+     * @param aSortedWords
+     *            the words in sorted order.
+     * @param aUnk
+     *            the vector to use for words which are not in the vocabulary.
+     * @param aEncodedVectors
+     *            a file containing the encoded vectors in the order of the words.
+     * @param aTarget
+     *            the file to write.
+     */
+    static void writeBinary(Header aHeader, String[] aSortedWords, float[] aUnk,
+            Path aEncodedVectors, Path aTarget)
+        throws IOException
+    {
+        aHeader.wordCount = aSortedWords.length;
+        
+        try (
+                FileChannel channel = FileChannel.open(aTarget, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                FileChannel vectors = FileChannel.open(aEncodedVectors);
+        ) {
+            DataOutputStream output = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel)));
+            VectorChecksums checksums = new VectorChecksums();
+            writeHead(output, aHeader, aSortedWords, aUnk, checksums);
+            output.flush();
+            
+            // Copy the vectors through memory-mapped chunks which are checksummed on the way
+            long size = vectors.size();
+            for (long position = 0; position < size; position += VectorChecksums.BLOCK_SIZE) {
+                ByteBuffer chunk = vectors.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(VectorChecksums.BLOCK_SIZE, size - position));
+                checksums.updateVectors(chunk.duplicate());
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk);
+                }
+            }
+            
+            writeTail(output, aHeader, aSortedWords, checksums);
+            output.flush();
+        }
+    }
+    
+    /**
+     * Write everything in front of the vectors: the header, the vocabulary and the UNK vector.
+     * The checksums of these sections are recorded on the way.
+     */
+    private static void writeHead(DataOutputStream aOutput, Header aHeader, String[] aWords,
+            float[] aUnk, VectorChecksums aChecksums)
+        throws IOException
+    {
+        CRC32 crc = new CRC32();
+        aHeader.write(new CheckedOutputStream(aOutput, crc));
+        aChecksums.header = (int) crc.getValue();
+
+        System.out.println("Writing strings...");
+        crc.reset();
+        DataOutputStream vocabularyOutput = new DataOutputStream(
+                new CheckedOutputStream(aOutput, crc));
+        if (aHeader.version == 1) {
+            for (String word : aWords) {
+                vocabularyOutput.writeUTF(word);
+            }
+        }
+        else {
+            MappedVocabulary.write(vocabularyOutput, aWords);
+        }
+        aChecksums.vocabulary = (int) crc.getValue();
+
+        System.out.println("Writing UNK vector...");
+        ByteBuffer buffer = ByteBuffer.allocate(aUnk.length * Float.BYTES);
+        buffer.asFloatBuffer().put(aUnk);
+        aOutput.write(buffer.array());
+        crc.reset();
+        crc.update(buffer.array());
+        aChecksums.unk = (int) crc.getValue();
+    }
+    
+    /**
+     * Write everything behind the vectors: the word index for version 1 and the checksums for
+     * later versions.
+     */
+    private static void writeTail(DataOutputStream aOutput, Header aHeader, String[] aWords,
+            VectorChecksums aChecksums)
+        throws IOException
+    {
+        if (aHeader.version == 1) {
+            System.out.println("Writing index...");
+            aOutput.write(WordHashIndex.MAGIC.getBytes(StandardCharsets.US_ASCII));
+            WordHashIndex.build(aWords).write(aOutput);
+        }
+        else {
+            System.out.println("Writing checksums...");
+            aChecksums.write(aOutput);
+        }
+    }
+    
+    private static void writeFully(FileChannel aChannel, ByteBuffer aBuffer,
+            VectorChecksums aChecksums)
+        throws IOException
+    {
+        aBuffer.flip();
+        aChecksums.updateVectors(aBuffer.duplicate());
+        while (aBuffer.hasRemaining()) {
+            aChannel.write(aBuffer);
+        }
+        aBuffer.clear();
+    }
+
+    /**
+     * Write a binary word vectors file containing only some of the words of an existing one, e.g.
+     * to ship only the part of the vocabulary which is actually used. Case handling, locale,
+     * encoding and the UNK vector are taken over from the source.
+     * 
+     * @param aSource
+     *            the vectors to prune.
+     * @param aIndexes
+     *            the positions of the words to keep in the vocabulary of the source.
+     * @param aTarget
+     *            the file to write.
+     */
+    public static void prune(BinaryVectorizer aSource, int[] aIndexes, Path aTarget)
+        throws IOException
+    {
+        Header header = new Header();
+        header.vectorLength = aSource.header.vectorLength;
+        header.caseless = aSource.header.caseless;
+        header.locale = aSource.header.locale;
+        header.encoding = aSource.header.encoding;
+        
+        Vocabulary vocabulary = aSource.getVocabulary();
+        String[] words = new String[aIndexes.length];
+        for (int i = 0; i < aIndexes.length; i++) {
+            words[i] = vocabulary.get(aIndexes[i]);
+        }
+        
+        float[] unk = new float[header.vectorLength];
+        aSource.vectorizeInto(-1, unk, 0);
+        
+        // Look up by vocabulary entry - the words are already case-folded if necessary
+        writeBinary(header, words, word -> {
+            float[] vector = new float[header.vectorLength];
+            aSource.vectorizeInto(vocabulary.indexOf(word), vector, 0);
+            return vector;
+        }, unk, aTarget);
+    }
+
+    @FunctionalInterface
+    public interface VectorSource
+    {
+        float[] getVector(String aWord)
+            throws IOException;
+        
+        /**
+         * Copy the vector of the given word into the target array. Sources which can do this
+         * without allocating a new array should override this method.
+         */
+        default void getVector(String aWord, float[] aTarget)
+            throws IOException
+        {
+            float[] vector = getVector(aWord);
+            System.arraycopy(vector, 0, aTarget, 0, aTarget.length);
         }
     }
 
@@ -143,7 +391,15 @@ public class BinaryWordVectorSerializer {
     {
         private static final String MAGIC = "dl4jw2v";
         
-        private int version = 1;
+        /**
+         * Version 1 stores the vocabulary as a sequence of modified UTF-8 strings which need to be
+         * read into the heap. Version 2 stores an offset table plus a UTF-8 blob which is
+         * memory-mapped. Also, only version 2 supports encodings other than
+         * {@link VectorEncoding#FLOAT32}.
+         */
+        public static final int VERSION = 2;
+        
+        private int version = VERSION;
         
         private int wordCount;
         private int vectorLength;
@@ -152,6 +408,62 @@ public class BinaryWordVectorSerializer {
         
         private String locale;
         
+        private VectorEncoding encoding = VectorEncoding.FLOAT32;
+        
+        private Header()
+        {
+            // Used when reading
+        }
+        
+        public Header(int aVersion, int aVectorLength, boolean aCaseless, Locale aLocale)
+        {
+            this(aVersion, aVectorLength, aCaseless, aLocale, VectorEncoding.FLOAT32);
+        }
+        
+        public Header(int aVersion, int aVectorLength, boolean aCaseless, Locale aLocale,
+                VectorEncoding aEncoding)
+        {
+            if (aVersion < 1 || aVersion > VERSION) {
+                throw new IllegalArgumentException("Not supported file format version.");
+            }
+            
+            if (aVersion == 1 && aEncoding != VectorEncoding.FLOAT32) {
+                throw new IllegalArgumentException(
+                        "File format version 1 only supports " + VectorEncoding.FLOAT32);
+            }
+            
+            version = aVersion;
+            vectorLength = aVectorLength;
+            caseless = aCaseless;
+            locale = aLocale.toString();
+            encoding = aEncoding;
+        }
+        
+        public int getVersion()
+        {
+            return version;
+        }
+        
+        public int getWordCount()
+        {
+            return wordCount;
+        }
+        
+        public int getVectorLength()
+        {
+            return vectorLength;
+        }
+        
+        public boolean isCaseless()
+        {
+            return caseless;
+        }
+        
+        public VectorEncoding getEncoding()
+        {
+            return encoding;
+        }
+        
         public static Header read(DataInput aInput)
             throws IOException
         {
@@ -165,7 +477,7 @@ public class BinaryWordVectorSerializer {
             Header header = new Header();
             
             header.version = aInput.readByte();
-            if (1 != header.version) {
+            if (header.version < 1 || header.version > VERSION) {
                 throw new IOException("Not supported file format version.");
             }
             
@@ -176,6 +488,15 @@ public class BinaryWordVectorSerializer {
             
             header.locale = aInput.readUTF();
             
+            if (header.version >= 2) {
+                try {
+                    header.encoding = VectorEncoding.forId(aInput.readByte());
+                }
+                catch (IllegalArgumentException e) {
+                    throw new IOException(e.getMessage());
+                }
+            }
+            
             return header;
         }
         
@@ -195,127 +516,349 @@ public class BinaryWordVectorSerializer {
             
             out.writeUTF(locale);
             
+            if (version >= 2) {
+                out.writeByte(encoding.getId());
+            }
+            
             out.flush();
         }
     }
 
+    /**
+     * Provides access to a binary word vectors file. The vectors are memory-mapped and never
+     * modified, so a single instance can safely be shared by any number of threads.
+     */
     public static class BinaryVectorizer
+        implements WordEmbeddings
     {
+        // Number of words looked up to check an index stored in a version 1 file
+        private static final int INDEX_SAMPLE_SIZE = 64;
+        
         private final Header header;
         
-        public final String[] words;
-        private final FloatBuffer[] parts;
+        private final Vocabulary vocabulary;
+        private final ByteBuffer[] parts;
         private final int maxVectorsPerPartition;
+        private final int recordSize;
         
         private Locale locale;
         
         private float[] unk;
+        
+        // Decoding buffer for the vectorizeInto variants which do not write into a float[]
+        private final ThreadLocal<float[]> scratch;
+        
+        // Created on first use since computing the norms reads all vectors
+        private volatile NearestNeighbors neighbors;
 
-        BinaryVectorizer(Header aHeader, RandomAccessFile file, String[] aWords,
+        BinaryVectorizer(Header aHeader, RandomAccessFile file, Vocabulary aVocabulary,
                 long vectorStartOffset, float[] aUnk)
                     throws IOException
         {
             header = aHeader;
-            words = aWords;
+            vocabulary = aVocabulary;
             
             unk = aUnk;
+            scratch = ThreadLocal.withInitial(() -> new float[header.vectorLength]);
             
             locale = Locale.forLanguageTag(header.locale);
 
             // Integers can address up to 2 GB (Integer.MAX_VALUE) - to handle large embeddings
             // files, we partition the file into parts of up to 2 GB each.
-            maxVectorsPerPartition = Integer.MAX_VALUE / (header.vectorLength * Float.BYTES);
-            int maxPartitionSizeBytes = maxVectorsPerPartition * header.vectorLength * Float.BYTES;
-            int neededPartitions = aWords.length / maxVectorsPerPartition;
-            if (aWords.length % maxPartitionSizeBytes > 0) {
+            recordSize = header.encoding.recordSize(header.vectorLength);
+            maxVectorsPerPartition = Integer.MAX_VALUE / recordSize;
+            int maxPartitionSizeBytes = maxVectorsPerPartition * recordSize;
+            int neededPartitions = header.wordCount / maxVectorsPerPartition;
+            if (header.wordCount % maxVectorsPerPartition > 0) {
                 neededPartitions += 1;
             }
 
-            parts = new FloatBuffer[neededPartitions];
+            parts = new ByteBuffer[neededPartitions];
             FileChannel channel = file.getChannel();
             for (int i = 0; i < neededPartitions; i++) {
                 long start = vectorStartOffset + ((long) i * maxPartitionSizeBytes);
                 long length = maxPartitionSizeBytes;
                 if (i == neededPartitions - 1) {
-                    length = (aWords.length % maxVectorsPerPartition) * header.vectorLength * Float.BYTES;
+                    length = (long) (header.wordCount - i * maxVectorsPerPartition) * recordSize;
                 }
-                parts[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length)
-                        .asFloatBuffer();
+                parts[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
             }
         }
 
+        @Override
         public int getVectorSize()
         {
             return header.vectorLength;
         }
         
+        public Header getHeader()
+        {
+            return header;
+        }
+        
+        public Vocabulary getVocabulary()
+        {
+            return vocabulary;
+        }
+        
+        /**
+         * Find the words most similar to the given word by exact search over all vectors. The
+         * first call computes the norms of all vectors. For large vocabularies, consider an
+         * {@link HnswIndex} instead.
+         * 
+         * @see NearestNeighbors#nearest(String, int)
+         */
+        public List<Neighbor> nearest(String aWord, int aK)
+        {
+            return getNearestNeighbors().nearest(aWord, aK);
+        }
+        
+        /**
+         * @return the exact nearest-neighbour search over these vectors. It is created on the
+         *         first call, which computes the norms of all vectors, and shared afterwards.
+         */
+        public NearestNeighbors getNearestNeighbors()
+        {
+            NearestNeighbors search = neighbors;
+            if (search == null) {
+                synchronized (this) {
+                    if (neighbors == null) {
+                        neighbors = new NearestNeighbors(this);
+                    }
+                    search = neighbors;
+                }
+            }
+            return search;
+        }
+        
         public boolean contains(String aWord)
+        {
+            return indexOf(aWord) >= 0;
+        }
+        
+        /**
+         * @return the position of the word in the vocabulary or {@code -1} if the word is unknown.
+         *         For caseless vectors, the word is lower-cased before the lookup.
+         */
+        @Override
+        public int indexOf(String aWord)
         {
             String word = aWord;
             if (header.caseless) {
                 word = word.toLowerCase(locale);
             }
             
-            return Arrays.binarySearch(words, word) >= 0;
+            return vocabulary.indexOf(word);
         }
         
         public float[] vectorize(String aWord)
             throws IOException
         {
-            String word = aWord;
-            if (header.caseless) {
-                word = word.toLowerCase(locale);
-            }
-            
-            int vectorIdx = Arrays.binarySearch(words, word);
+            int vectorIdx = indexOf(aWord);
             
             // Word not found
             if (vectorIdx < 0) {
                 return unk;
             }
             
+            float[] vector = new float[header.vectorLength];
+            vectorizeInto(vectorIdx, vector, 0);
+            return vector;
+        }
+        
+        /**
+         * Write the vector of the given word into the destination array. Unknown words receive
+         * the UNK vector. Unlike {@link #vectorize(String)}, this does not allocate memory.
+         */
+        public void vectorizeInto(String aWord, float[] aDest, int aOffset)
+        {
+            vectorizeInto(indexOf(aWord), aDest, aOffset);
+        }
+        
+        /**
+         * Write the vector at the given position in the vocabulary into the destination array.
+         * 
+         * @param aIndex
+         *            the position as obtained from {@link #indexOf(String)}. A negative value
+         *            yields the UNK vector.
+         */
+        public void vectorizeInto(int aIndex, float[] aDest, int aOffset)
+        {
+            // Word not found
+            if (aIndex < 0) {
+                System.arraycopy(unk, 0, aDest, aOffset, unk.length);
+                return;
+            }
+            
             // Locate the buffer from which to read the vevtor
-            int partitionIdx = vectorIdx / maxVectorsPerPartition;
-            FloatBuffer part = this.parts[partitionIdx];
+            int partitionIdx = aIndex / maxVectorsPerPartition;
+            ByteBuffer part = this.parts[partitionIdx];
 
             // Locate the position within the buffer from which to read the vector
-            int relativeVectorIdx = vectorIdx % maxVectorsPerPartition;
-            int offset = relativeVectorIdx * header.vectorLength;
-            part.position(offset);
+            int relativeVectorIdx = aIndex % maxVectorsPerPartition;
+            int offset = relativeVectorIdx * recordSize;
 
-            // Read the vector
-            float[] vector = new float[header.vectorLength];
-            part.get(vector);
-            return vector;
+            // Read the vector - using absolute positions only, the buffer may be shared by
+            // multiple threads
+            header.encoding.decode(part, offset, aDest, aOffset, header.vectorLength);
+        }
+        
+        /**
+         * Write the vector of the given word into the destination buffer starting at the given
+         * absolute position. The position of the buffer is not changed.
+         */
+        public void vectorizeInto(String aWord, FloatBuffer aDest, int aOffset)
+        {
+            float[] vector = scratch.get();
+            vectorizeInto(aWord, vector, 0);
+            for (int i = 0; i < vector.length; i++) {
+                aDest.put(aOffset + i, vector[i]);
+            }
+        }
+        
+        /**
+         * Write the vector of the given word into an ND4J buffer, e.g. the buffer backing a
+         * feature tensor. The components of the vector are written at {@code aOffset},
+         * {@code aOffset + aStride}, {@code aOffset + 2 * aStride}, etc. - so the vector can be
+         * placed along any dimension of the tensor.
+         */
+        @Override
+        public void vectorizeInto(String aWord, DataBuffer aDest, long aOffset, long aStride)
+        {
+            vectorizeInto(indexOf(aWord), aDest, aOffset, aStride);
+        }
+        
+        /**
+         * Write the vector at the given position in the vocabulary into an ND4J buffer.
+         * 
+         * @see #vectorizeInto(String, DataBuffer, long, long)
+         */
+        public void vectorizeInto(int aIndex, DataBuffer aDest, long aOffset, long aStride)
+        {
+            float[] vector = scratch.get();
+            vectorizeInto(aIndex, vector, 0);
+            for (int i = 0; i < vector.length; i++) {
+                aDest.put(aOffset + i * aStride, vector[i]);
+            }
         }
 
         public static BinaryVectorizer load(Path vectorsDir)
             throws IOException
         {
-            RandomAccessFile file = new RandomAccessFile(vectorsDir.toFile(), "rw");
-
-            // Load header
-            Header header = Header.read(file);
-
-            // Load words
-            String[] words = new String[header.wordCount];
-            for (int i = 0; i < header.wordCount; i++) {
-                words[i] = file.readUTF();
+            return load(vectorsDir, 0);
+        }
+        
+        /**
+         * Load binary word vectors which start at the given position of a file, e.g. because they
+         * are stored as an uncompressed entry of a {@link ModelArchive model bundle}.
+         */
+        public static BinaryVectorizer load(Path vectorsDir, long aOffset)
+            throws IOException
+        {
+            return load(vectorsDir, aOffset, false);
+        }
+        
+        /**
+         * Load binary word vectors, optionally checking the header, vocabulary and UNK vector
+         * against the checksums stored in the file. The vectors themselves are not checked
+         * because that would mean reading the whole file, use
+         * {@link BinaryWordVectorSerializer#verifyChecksums(Path, int)} for that.
+         */
+        public static BinaryVectorizer load(Path vectorsDir, long aOffset, boolean aCheck)
+            throws IOException
+        {
+            // The mapped buffers stay valid after the file has been closed
+            try (RandomAccessFile file = new RandomAccessFile(vectorsDir.toFile(), "r")) {
+                if (aCheck) {
+                    VectorChecksums.verifyHead(file, aOffset);
+                }
+                
+                file.seek(aOffset);
+                
+                // Load header
+                Header header = Header.read(file);
+    
+                // Load words
+                Vocabulary vocabulary;
+                if (header.version == 1) {
+                    vocabulary = readVocabularyV1(file, header);
+                }
+                else {
+                    vocabulary = MappedVocabulary.map(file, header.wordCount);
+                }
+                System.out.println("Loaded " + vocabulary.size());
+    
+                // Load UNK vector
+                byte[] buffer = new byte[header.vectorLength * Float.BYTES];
+                file.readFully(buffer);
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+                float[] unk = new float[header.vectorLength];
+                for (int i = 0; i < unk.length; i++) {
+                    unk[i] = byteBuffer.getFloat(i * Float.BYTES);
+                }
+                
+                // Rest of the file is mmapped
+                long offset = file.getFilePointer();
+                
+                if (header.version == 1) {
+                    vocabulary = mapIndexV1(file, header, vocabulary, offset);
+                }
+                
+                return new BinaryVectorizer(header, file, vocabulary, offset, unk);
             }
-            System.out.println("Loaded " + words.length);
-
-            // Load UNK vector
-            byte[] buffer = new byte[header.vectorLength * Float.BYTES];
-            file.readFully(buffer);
-            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
-            float[] unk = new float[header.vectorLength];
-            for (int i = 0; i < unk.length; i++) {
-                unk[i] = byteBuffer.getFloat(i * Float.BYTES);
+        }
+        
+        private static Vocabulary readVocabularyV1(RandomAccessFile aFile, Header aHeader)
+            throws IOException
+        {
+            String[] words = new String[aHeader.wordCount];
+            for (int i = 0; i < aHeader.wordCount; i++) {
+                words[i] = aFile.readUTF();
+            }
+            return new ArrayVocabulary(words);
+        }
+        
+        private static Vocabulary mapIndexV1(RandomAccessFile aFile, Header aHeader,
+                Vocabulary aVocabulary, long aVectorStartOffset)
+            throws IOException
+        {
+            // Load the word index stored behind the vectors. If the file does not have one, we
+            // keep the index built on the fly when reading the words.
+            long indexOffset = aVectorStartOffset
+                    + (long) aHeader.wordCount * aHeader.vectorLength * Float.BYTES;
+            if (aFile.length() < indexOffset + WordHashIndex.MAGIC.length()
+                    + WordHashIndex.sizeInBytes(0)) {
+                return aVocabulary;
             }
             
-            // Rest of the file is mmapped
-            long offset = file.getFilePointer();
-            return new BinaryVectorizer(header, file, words, offset, unk);
+            aFile.seek(indexOffset);
+            byte[] magicBytes = new byte[WordHashIndex.MAGIC.length()];
+            aFile.readFully(magicBytes);
+            if (!WordHashIndex.MAGIC.equals(new String(magicBytes, StandardCharsets.US_ASCII))) {
+                return aVocabulary;
+            }
+            
+            String[] words = new String[aVocabulary.size()];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = aVocabulary.get(i);
+            }
+            
+            // Version 1 files have no checksums, so the stored index is only used if it fits the
+            // vocabulary and finds a sample of the words at their positions
+            try {
+                Vocabulary mapped = new ArrayVocabulary(words,
+                        WordHashIndex.map(aFile, words.length));
+                int step = Math.max(1, words.length / INDEX_SAMPLE_SIZE);
+                for (int i = 0; i < words.length; i += step) {
+                    if (mapped.indexOf(words[i]) != i) {
+                        return aVocabulary;
+                    }
+                }
+                return mapped;
+            }
+            catch (IOException | IllegalStateException e) {
+                return aVocabulary;
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+
+/**
+ * Writes training checkpoints in the background. The network is copied on the calling thread,
+ * which only takes as long as copying the parameters and the updater state in memory. Serializing
+ * and writing the copy then happens on a separate thread while training continues.
+ * <p>
+ * At most one checkpoint is written at a time. If a checkpoint is requested while the previous
+ * one is still being written, the call waits for the previous one to complete. A failure to write
+ * a checkpoint is reported by the next call to {@link #write} or {@link #close()}.
+ */
+public class CheckpointWriter
+    implements AutoCloseable
+{
+    /**
+     * Number of completed epochs. In a final model, the epoch the network stems from.
+     */
+    public static final String PROP_EPOCH = "epoch";
+    
+    /**
+     * Number of completed iterations (mini-batches).
+     */
+    public static final String PROP_ITERATION = "iteration";
+    
+    private final File target;
+    private final ExecutorService executor;
+    private Future<?> pending;
+
+    public CheckpointWriter(File aTarget)
+    {
+        target = aTarget;
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "checkpoint-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Write a checkpoint of the given network after the given number of completed epochs.
+     */
+    public void write(MultiLayerNetwork aNetwork, String[] aTagset, int aEpoch)
+        throws IOException
+    {
+        awaitPending();
+        
+        MultiLayerNetwork snapshot = aNetwork.clone();
+        Properties state = new Properties();
+        state.setProperty(PROP_EPOCH, String.valueOf(aEpoch));
+        state.setProperty(PROP_ITERATION,
+                String.valueOf(aNetwork.getLayerWiseConfigurations().getIterationCount()));
+        
+        pending = executor.submit(() -> {
+            ModelArchive.write(target, snapshot, aTagset, true, state);
+            return null;
+        });
+    }
+
+    /**
+     * Wait for the checkpoint currently being written and stop the writer thread.
+     */
+    @Override
+    public void close()
+        throws IOException
+    {
+        try {
+            awaitPending();
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    private void awaitPending()
+        throws IOException
+    {
+        if (pending == null) {
+            return;
+        }
+        
+        try {
+            pending.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing checkpoint", e);
+        }
+        catch (ExecutionException e) {
+            throw new IOException("Unable to write checkpoint [" + target + "]", e.getCause());
+        }
+        finally {
+            pending = null;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+/**
+ * Compact representation of a tagged sentence for training: the position of each word in the
+ * vocabulary of the word vectors ({@code -1} for unknown words) and the index of each tag in the
+ * tagset. Dense feature tensors are only assembled when a mini-batch is needed, see
+ * {@link Vectorize#vectorize(java.util.List, BinaryWordVectorSerializer.BinaryVectorizer, int)}.
+ */
+public class EncodedSentence
+{
+    private final int[] words;
+    private final int[] tags;
+
+    public EncodedSentence(int[] aWords, int[] aTags)
+    {
+        if (aWords.length != aTags.length) {
+            throw new IllegalArgumentException("Number of words [" + aWords.length
+                    + "] and number of tags [" + aTags.length + "] must be the same");
+        }
+        
+        words = aWords;
+        tags = aTags;
+    }
+
+    public int length()
+    {
+        return words.length;
+    }
+
+    public int[] getWords()
+    {
+        return words;
+    }
+
+    public int[] getTags()
+    {
+        return tags;
+    }
+}
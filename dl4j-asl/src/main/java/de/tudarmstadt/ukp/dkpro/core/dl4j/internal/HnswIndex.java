@@ -0,0 +1,535 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import static java.util.Comparator.comparingDouble;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.BinaryVectorizer;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.NearestNeighbors.Neighbor;
+
+/**
+ * Approximate nearest-neighbour index over the vectors of a {@link BinaryVectorizer} based on
+ * hierarchical navigable small world graphs (HNSW). Only the graph is kept in this index, the
+ * vectors are read from the vectorizer. The index is stored in a file next to the vectors file,
+ * see {@link #open(BinaryVectorizer, Path, int, int)}.
+ * <p>
+ * Building the index is single-threaded. Once built, the index is thread-safe.
+ */
+public class HnswIndex
+{
+    public static final String MAGIC = "dl4jhnsw";
+    public static final String SUFFIX = ".hnsw";
+    
+    private static final int VERSION = 2;
+    
+    private static final Logger log = LoggerFactory.getLogger(HnswIndex.class);
+    
+    private final BinaryVectorizer vectors;
+    private final NearestNeighbors norms;
+    private final int m;
+    
+    // Neighbours per node and level - the first element of each array is the number of
+    // neighbours, followed by the neighbours themselves
+    private final int[][][] links;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+    
+    private final ThreadLocal<Visited> visited;
+
+    private HnswIndex(BinaryVectorizer aVectors, int aM)
+    {
+        vectors = aVectors;
+        // Shares the norms with the exact search of the vectorizer instead of computing them again
+        norms = aVectors.getNearestNeighbors();
+        m = aM;
+        links = new int[aVectors.getVocabulary().size()][][];
+        visited = ThreadLocal.withInitial(() -> new Visited(links.length));
+    }
+    
+    /**
+     * Load the index stored next to the given vectors file. If there is none or if it does not
+     * match the vectors, a new index is built and stored.
+     * 
+     * @param aM
+     *            the number of neighbours per node on the upper levels. On the bottom level, twice
+     *            as many are kept. Higher values improve recall at the expense of memory.
+     * @param aEfConstruction
+     *            the size of the candidate list while building. Higher values improve recall at
+     *            the expense of build time.
+     */
+    public static HnswIndex open(BinaryVectorizer aVectors, Path aVectorsFile, int aM,
+            int aEfConstruction)
+        throws IOException
+    {
+        checkM(aM);
+        
+        // The vectors file may have been replaced by one with the same vocabulary size
+        long vectorsModified = Files.getLastModifiedTime(aVectorsFile).toMillis();
+        Path indexFile = aVectorsFile.resolveSibling(aVectorsFile.getFileName() + SUFFIX);
+        if (Files.exists(indexFile)) {
+            try {
+                return read(aVectors, indexFile, vectorsModified);
+            }
+            catch (IOException e) {
+                log.warn("Rebuilding HNSW index [{}]: {}", indexFile, e.getMessage());
+            }
+        }
+        
+        HnswIndex index = build(aVectors, aM, aEfConstruction, 12345L);
+        index.write(indexFile, vectorsModified);
+        return index;
+    }
+    
+    /**
+     * @param aM
+     *            the number of neighbours per node on the upper levels. Must be at least
+     *            {@code 2}.
+     */
+    public static HnswIndex build(BinaryVectorizer aVectors, int aM, int aEfConstruction,
+            long aSeed)
+    {
+        checkM(aM);
+        
+        HnswIndex index = new HnswIndex(aVectors, aM);
+        Random rnd = new Random(aSeed);
+        double levelFactor = 1.0 / Math.log(aM);
+        for (int i = 0; i < index.links.length; i++) {
+            int level = (int) (-Math.log(1.0 - rnd.nextDouble()) * levelFactor);
+            index.insert(i, level, aEfConstruction);
+        }
+        return index;
+    }
+    
+    /**
+     * Find words similar to the given word. The word itself is not included in the result.
+     * 
+     * @param aEf
+     *            the size of the candidate list. Higher values improve recall at the expense of
+     *            speed. Values below {@code aK} are raised to {@code aK}.
+     * @return the neighbours, most similar first. Empty if the word is unknown.
+     */
+    public List<Neighbor> nearest(String aWord, int aK, int aEf)
+    {
+        NearestNeighbors.checkK(aK);
+        
+        int index = vectors.indexOf(aWord);
+        if (index < 0) {
+            return new ArrayList<>();
+        }
+        
+        float[] query = new float[vectors.getVectorSize()];
+        vectors.vectorizeInto(index, query, 0);
+        return nearest(query, aK, aEf, index);
+    }
+    
+    /**
+     * Find words similar to the given vector.
+     * 
+     * @param aExclude
+     *            position of a word to leave out of the result or {@code -1}.
+     */
+    public List<Neighbor> nearest(float[] aQuery, int aK, int aEf, int aExclude)
+    {
+        NearestNeighbors.checkK(aK);
+        
+        float queryNorm = (float) Math.sqrt(NearestNeighbors.dot(aQuery, aQuery));
+        if (entryPoint < 0 || queryNorm == 0.0f) {
+            return new ArrayList<>();
+        }
+        
+        float[] scratch = new float[aQuery.length];
+        List<Candidate> entry = Collections.singletonList(
+                new Candidate(entryPoint, similarity(aQuery, queryNorm, entryPoint, scratch)));
+        for (int level = maxLevel; level > 0; level--) {
+            entry = Collections.singletonList(
+                    best(searchLayer(aQuery, queryNorm, entry, 1, level, scratch)));
+        }
+        
+        // One more candidate in case the excluded word is among them
+        PriorityQueue<Candidate> found = searchLayer(aQuery, queryNorm, entry,
+                Math.max(aEf, aK + 1), 0, scratch);
+        
+        PriorityQueue<Neighbor> top = new PriorityQueue<>(
+                comparingDouble(Neighbor::getSimilarity));
+        for (Candidate c : found) {
+            if (c.node == aExclude) {
+                continue;
+            }
+            top.add(new Neighbor(vectors, c.node, c.similarity));
+            if (top.size() > aK) {
+                top.poll();
+            }
+        }
+        return NearestNeighbors.toList(top);
+    }
+    
+    private void insert(int aNode, int aLevel, int aEfConstruction)
+    {
+        links[aNode] = new int[aLevel + 1][];
+        for (int level = 0; level <= aLevel; level++) {
+            links[aNode][level] = new int[1 + capacity(level)];
+        }
+        
+        if (entryPoint < 0) {
+            entryPoint = aNode;
+            maxLevel = aLevel;
+            return;
+        }
+        
+        float[] query = new float[vectors.getVectorSize()];
+        vectors.vectorizeInto(aNode, query, 0);
+        float queryNorm = norms.norm(aNode);
+        float[] scratch = new float[query.length];
+        
+        List<Candidate> entry = Collections.singletonList(
+                new Candidate(entryPoint, similarity(query, queryNorm, entryPoint, scratch)));
+        for (int level = maxLevel; level > aLevel; level--) {
+            entry = Collections.singletonList(
+                    best(searchLayer(query, queryNorm, entry, 1, level, scratch)));
+        }
+        
+        for (int level = Math.min(aLevel, maxLevel); level >= 0; level--) {
+            PriorityQueue<Candidate> found = searchLayer(query, queryNorm, entry,
+                    aEfConstruction, level, scratch);
+            entry = new ArrayList<>(found);
+            
+            // Connect to the closest candidates
+            List<Candidate> sorted = new ArrayList<>(found);
+            sorted.sort(comparingDouble((Candidate c) -> c.similarity).reversed());
+            for (Candidate c : sorted.subList(0, Math.min(m, sorted.size()))) {
+                link(aNode, c.node, level, scratch);
+                link(c.node, aNode, level, scratch);
+            }
+        }
+        
+        if (aLevel > maxLevel) {
+            maxLevel = aLevel;
+            entryPoint = aNode;
+        }
+    }
+    
+    /**
+     * Add a neighbour to a node. If the node already has the maximum number of neighbours, only
+     * the closest ones are kept.
+     */
+    private void link(int aNode, int aNeighbor, int aLevel, float[] aScratch)
+    {
+        int[] neighbors = links[aNode][aLevel];
+        int count = neighbors[0];
+        if (count < neighbors.length - 1) {
+            neighbors[count + 1] = aNeighbor;
+            neighbors[0] = count + 1;
+            return;
+        }
+        
+        float[] node = new float[aScratch.length];
+        vectors.vectorizeInto(aNode, node, 0);
+        float nodeNorm = norms.norm(aNode);
+        
+        PriorityQueue<Candidate> keep = new PriorityQueue<>(comparingDouble(c -> c.similarity));
+        keep.add(new Candidate(aNeighbor, similarity(node, nodeNorm, aNeighbor, aScratch)));
+        for (int i = 1; i <= count; i++) {
+            keep.add(new Candidate(neighbors[i],
+                    similarity(node, nodeNorm, neighbors[i], aScratch)));
+        }
+        keep.poll();
+        
+        int i = 1;
+        for (Candidate c : keep) {
+            neighbors[i++] = c.node;
+        }
+    }
+    
+    /**
+     * Greedy best-first search on one level of the graph.
+     * 
+     * @return up to {@code aEf} closest nodes found as a min-heap on similarity.
+     */
+    private PriorityQueue<Candidate> searchLayer(float[] aQuery, float aQueryNorm,
+            List<Candidate> aEntry, int aEf, int aLevel, float[] aScratch)
+    {
+        Visited seen = visited.get();
+        seen.clear();
+        
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>(
+                comparingDouble((Candidate c) -> c.similarity).reversed());
+        PriorityQueue<Candidate> results = new PriorityQueue<>(
+                comparingDouble((Candidate c) -> c.similarity));
+        for (Candidate c : aEntry) {
+            seen.visit(c.node);
+            candidates.add(c);
+            results.add(c);
+        }
+        
+        while (!candidates.isEmpty()) {
+            Candidate current = candidates.poll();
+            if (results.size() >= aEf && current.similarity < results.peek().similarity) {
+                break;
+            }
+            
+            int[] neighbors = links[current.node][aLevel];
+            for (int i = 1; i <= neighbors[0]; i++) {
+                int n = neighbors[i];
+                if (!seen.visit(n)) {
+                    continue;
+                }
+                
+                float similarity = similarity(aQuery, aQueryNorm, n, aScratch);
+                if (results.size() < aEf || similarity > results.peek().similarity) {
+                    Candidate c = new Candidate(n, similarity);
+                    candidates.add(c);
+                    results.add(c);
+                    if (results.size() > aEf) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+        
+        return results;
+    }
+    
+    private static Candidate best(PriorityQueue<Candidate> aResults)
+    {
+        Candidate best = null;
+        for (Candidate c : aResults) {
+            if (best == null || c.similarity > best.similarity) {
+                best = c;
+            }
+        }
+        return best;
+    }
+    
+    private float similarity(float[] aQuery, float aQueryNorm, int aNode, float[] aScratch)
+    {
+        float norm = norms.norm(aNode);
+        if (norm == 0.0f || aQueryNorm == 0.0f) {
+            return 0.0f;
+        }
+        vectors.vectorizeInto(aNode, aScratch, 0);
+        return NearestNeighbors.dot(aQuery, aScratch) / (aQueryNorm * norm);
+    }
+    
+    private int capacity(int aLevel)
+    {
+        return aLevel == 0 ? 2 * m : m;
+    }
+    
+    private static void checkM(int aM)
+    {
+        // With a single neighbour, the graph degenerates and the level factor 1 / log(M) is
+        // infinite
+        if (aM < 2) {
+            throw new IllegalArgumentException("M must be at least 2 but was [" + aM + "]");
+        }
+    }
+    
+    /**
+     * @param aVectorsModified
+     *            the last-modified time of the vectors file in milliseconds. It is recorded in the
+     *            index so that {@link #read(BinaryVectorizer, Path, long)} can detect when the
+     *            vectors have been replaced.
+     */
+    public void write(Path aTarget, long aVectorsModified)
+        throws IOException
+    {
+        Path tmp = aTarget.resolveSibling(aTarget.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.write(MAGIC.getBytes(StandardCharsets.US_ASCII));
+            out.writeInt(VERSION);
+            out.writeInt(links.length);
+            out.writeInt(vectors.getVectorSize());
+            out.writeLong(aVectorsModified);
+            out.writeInt(m);
+            out.writeInt(maxLevel);
+            out.writeInt(entryPoint);
+            for (int[][] node : links) {
+                out.writeByte(node.length);
+                for (int[] neighbors : node) {
+                    out.writeInt(neighbors[0]);
+                    for (int i = 1; i <= neighbors[0]; i++) {
+                        out.writeInt(neighbors[i]);
+                    }
+                }
+            }
+        }
+        
+        Files.move(tmp, aTarget, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /**
+     * @param aVectorsModified
+     *            the last-modified time of the vectors file in milliseconds.
+     * @throws IOException
+     *             if the index does not match the vectors or is damaged.
+     */
+    public static HnswIndex read(BinaryVectorizer aVectors, Path aSource, long aVectorsModified)
+        throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(aSource)))) {
+            byte[] magicBytes = new byte[MAGIC.length()];
+            in.readFully(magicBytes);
+            if (!MAGIC.equals(new String(magicBytes, StandardCharsets.US_ASCII))) {
+                throw new IOException("Not an HNSW index: [" + aSource + "]");
+            }
+            if (in.readInt() != VERSION) {
+                throw new IOException("Unsupported HNSW index version: [" + aSource + "]");
+            }
+            
+            int wordCount = in.readInt();
+            int vectorLength = in.readInt();
+            long vectorsModified = in.readLong();
+            if (wordCount != aVectors.getVocabulary().size()
+                    || vectorLength != aVectors.getVectorSize()
+                    || vectorsModified != aVectorsModified) {
+                throw new IOException("HNSW index [" + aSource + "] does not match the vectors");
+            }
+            
+            int m = in.readInt();
+            if (m < 2) {
+                throw corrupt(aSource, "M [" + m + "]");
+            }
+            HnswIndex index = new HnswIndex(aVectors, m);
+            index.maxLevel = in.readInt();
+            index.entryPoint = in.readInt();
+            if (wordCount == 0 ? index.entryPoint != -1 || index.maxLevel != -1
+                    : index.entryPoint < 0 || index.entryPoint >= wordCount
+                            || index.maxLevel < 0 || index.maxLevel > 255) {
+                throw corrupt(aSource, "entry point [" + index.entryPoint + "] at level ["
+                        + index.maxLevel + "]");
+            }
+            
+            for (int n = 0; n < wordCount; n++) {
+                int levels = in.readUnsignedByte();
+                if (levels < 1 || levels > index.maxLevel + 1) {
+                    throw corrupt(aSource, "node [" + n + "] has [" + levels + "] levels");
+                }
+                index.links[n] = new int[levels][];
+                for (int level = 0; level < levels; level++) {
+                    int[] neighbors = new int[1 + index.capacity(level)];
+                    int count = in.readInt();
+                    if (count < 0 || count > index.capacity(level)) {
+                        throw corrupt(aSource, "node [" + n + "] has [" + count
+                                + "] neighbours on level [" + level + "]");
+                    }
+                    neighbors[0] = count;
+                    for (int i = 1; i <= count; i++) {
+                        neighbors[i] = in.readInt();
+                    }
+                    index.links[n][level] = neighbors;
+                }
+            }
+            
+            // Only now all nodes are known - every neighbour must exist on the level it is
+            // linked on, and the entry point must reach the top level
+            for (int n = 0; n < wordCount; n++) {
+                for (int level = 0; level < index.links[n].length; level++) {
+                    int[] neighbors = index.links[n][level];
+                    for (int i = 1; i <= neighbors[0]; i++) {
+                        int neighbor = neighbors[i];
+                        if (neighbor < 0 || neighbor >= wordCount
+                                || index.links[neighbor].length <= level) {
+                            throw corrupt(aSource, "node [" + n + "] links to [" + neighbor
+                                    + "] on level [" + level + "]");
+                        }
+                    }
+                }
+            }
+            if (wordCount > 0 && index.links[index.entryPoint].length != index.maxLevel + 1) {
+                throw corrupt(aSource, "entry point [" + index.entryPoint
+                        + "] is not on the top level");
+            }
+            
+            return index;
+        }
+    }
+    
+    private static IOException corrupt(Path aSource, String aProblem)
+    {
+        return new IOException("Damaged HNSW index [" + aSource + "]: " + aProblem);
+    }
+    
+    private static class Candidate
+    {
+        final int node;
+        final float similarity;
+        
+        Candidate(int aNode, float aSimilarity)
+        {
+            node = aNode;
+            similarity = aSimilarity;
+        }
+    }
+    
+    /**
+     * Marks visited nodes. Clearing is constant-time by moving on to a new generation.
+     */
+    private static class Visited
+    {
+        private final int[] marks;
+        private int generation;
+        
+        Visited(int aSize)
+        {
+            marks = new int[aSize];
+        }
+        
+        void clear()
+        {
+            generation++;
+            if (generation == 0) {
+                Arrays.fill(marks, 0);
+                generation = 1;
+            }
+        }
+        
+        /**
+         * @return {@code true} if the node had not been visited before.
+         */
+        boolean visit(int aNode)
+        {
+            if (marks[aNode] == generation) {
+                return false;
+            }
+            marks[aNode] = generation;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Vocabulary which is memory-mapped from a version 2 binary word vectors file. Words are not
+ * decoded to strings for lookups, instead the query is compared directly against the UTF-8 bytes
+ * in the file. Thus, loading the vocabulary takes constant time and hardly any heap.
+ * <p>
+ * Layout of the vocabulary section:
+ * <ul>
+ * <li>{@code int[wordCount + 1]} - offset of each word in the UTF-8 blob; the last entry is the
+ * size of the blob</li>
+ * <li>{@code byte[]} - the UTF-8 encoded words without separators</li>
+ * <li>the {@link WordHashIndex}</li>
+ * </ul>
+ */
+public class MappedVocabulary
+    implements Vocabulary
+{
+    private final IntBuffer offsets;
+    private final ByteBuffer blob;
+    private final WordHashIndex index;
+
+    private MappedVocabulary(IntBuffer aOffsets, ByteBuffer aBlob, WordHashIndex aIndex)
+    {
+        offsets = aOffsets;
+        blob = aBlob;
+        index = aIndex;
+    }
+
+    /**
+     * Memory-map the vocabulary section starting at the current file pointer. Afterwards, the file
+     * pointer is located directly behind the section.
+     */
+    public static MappedVocabulary map(RandomAccessFile aFile, int aWordCount)
+        throws IOException
+    {
+        FileChannel channel = aFile.getChannel();
+        
+        long offsetsStart = aFile.getFilePointer();
+        long offsetsLength = (aWordCount + 1L) * Integer.BYTES;
+        IntBuffer offsets = channel
+                .map(FileChannel.MapMode.READ_ONLY, offsetsStart, offsetsLength)
+                .asIntBuffer();
+        
+        int blobLength = offsets.get(aWordCount);
+        ByteBuffer blob = channel.map(FileChannel.MapMode.READ_ONLY,
+                offsetsStart + offsetsLength, blobLength);
+        
+        aFile.seek(offsetsStart + offsetsLength + blobLength);
+        WordHashIndex index = WordHashIndex.map(aFile, aWordCount);
+        
+        return new MappedVocabulary(offsets, blob, index);
+    }
+
+    /**
+     * Write the vocabulary section for the given words.
+     */
+    public static void write(DataOutput aOutput, String[] aWords)
+        throws IOException
+    {
+        byte[][] encoded = new byte[aWords.length][];
+        long offset = 0;
+        for (int i = 0; i < aWords.length; i++) {
+            encoded[i] = aWords[i].getBytes(StandardCharsets.UTF_8);
+            offset += encoded[i].length;
+        }
+        
+        if (offset > Integer.MAX_VALUE) {
+            throw new IOException("Vocabulary exceeds 2 GB");
+        }
+        
+        offset = 0;
+        for (byte[] word : encoded) {
+            aOutput.writeInt((int) offset);
+            offset += word.length;
+        }
+        aOutput.writeInt((int) offset);
+        
+        for (byte[] word : encoded) {
+            aOutput.write(word);
+        }
+        
+        WordHashIndex.build(aWords).write(aOutput);
+    }
+
+    @Override
+    public int size()
+    {
+        return offsets.capacity() - 1;
+    }
+
+    @Override
+    public String get(int aIndex)
+    {
+        int start = offsets.get(aIndex);
+        byte[] bytes = new byte[offsets.get(aIndex + 1) - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = blob.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int indexOf(String aWord)
+    {
+        return index.lookup(aWord, this);
+    }
+
+    @Override
+    public boolean matches(int aIndex, String aWord)
+    {
+        int pos = offsets.get(aIndex);
+        int end = offsets.get(aIndex + 1);
+        int length = aWord.length();
+        
+        // A UTF-8 sequence is never shorter than the number of UTF-16 units it encodes and at
+        // most three times as long
+        int byteCount = end - pos;
+        if (byteCount < length || byteCount > length * 3) {
+            return false;
+        }
+        
+        // Decode the UTF-8 bytes and compare them against the UTF-16 units of the query. We only
+        // use absolute reads here, so the buffer can be shared between threads.
+        int i = 0;
+        while (pos < end) {
+            int b = blob.get(pos) & 0xFF;
+            int cp;
+            if (b < 0x80) {
+                cp = b;
+                pos += 1;
+            }
+            else if (b < 0xE0) {
+                cp = ((b & 0x1F) << 6) | (blob.get(pos + 1) & 0x3F);
+                pos += 2;
+            }
+            else if (b < 0xF0) {
+                cp = ((b & 0x0F) << 12) | ((blob.get(pos + 1) & 0x3F) << 6)
+                        | (blob.get(pos + 2) & 0x3F);
+                pos += 3;
+            }
+            else {
+                cp = ((b & 0x07) << 18) | ((blob.get(pos + 1) & 0x3F) << 12)
+                        | ((blob.get(pos + 2) & 0x3F) << 6) | (blob.get(pos + 3) & 0x3F);
+                pos += 4;
+            }
+            
+            if (cp < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                if (i >= length || aWord.charAt(i) != cp) {
+                    return false;
+                }
+                i += 1;
+            }
+            else {
+                if (i + 1 >= length || aWord.charAt(i) != Character.highSurrogate(cp)
+                        || aWord.charAt(i + 1) != Character.lowSurrogate(cp)) {
+                    return false;
+                }
+                i += 2;
+            }
+        }
+        
+        return i == length;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.compress.archivers.ArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.util.ModelSerializer;
+
+/**
+ * Reads and writes the model archive of the POS tagger. The archive is a ZIP file containing the
+ * tagset (one tag per line, in the order of the network outputs) and the serialized network.
+ * The archive may also contain a properties file recording the training state: checkpoints
+ * written during training record the progress, final models written by the trainer record the
+ * epoch their network stems from. A checkpoint can therefore be used for tagging just like a
+ * final model.
+ * <p>
+ * A <i>bundle</i> is a model archive which additionally contains the word embeddings as an
+ * uncompressed entry. The embeddings are memory-mapped directly from the bundle, so a tagger can
+ * be deployed as a single file.
+ */
+public class ModelArchive
+{
+    public static final String TAGSET_ENTRY = "tagset.txt";
+    public static final String MODEL_ENTRY = "model.zip";
+    public static final String STATE_ENTRY = "training.properties";
+    public static final String EMBEDDINGS_ENTRY = "embeddings.dl4jw2v";
+
+    private final String[] tagset;
+    private final MultiLayerNetwork network;
+    private final Properties state;
+
+    ModelArchive(String[] aTagset, MultiLayerNetwork aNetwork, Properties aState)
+    {
+        tagset = aTagset;
+        network = aNetwork;
+        state = aState;
+    }
+
+    public String[] getTagset()
+    {
+        return tagset;
+    }
+
+    public MultiLayerNetwork getNetwork()
+    {
+        return network;
+    }
+
+    /**
+     * @return the training state recorded in the archive. For a checkpoint, this is the progress
+     *         of the training (see {@link CheckpointWriter}). For a final model written by the
+     *         trainer, it holds {@link CheckpointWriter#PROP_EPOCH} of the epoch the network stems
+     *         from, e.g. the best epoch when stopping early. Empty if no state was written.
+     */
+    public Properties getState()
+    {
+        return state;
+    }
+
+    /**
+     * Write a model archive. The archive is first written to a temporary file which then replaces
+     * the target, so an existing archive is never left half-written.
+     *
+     * @param aState
+     *            training state to record or {@code null} to write none.
+     */
+    public static void write(File aTarget, MultiLayerNetwork aNetwork, String[] aTagset,
+            boolean aSaveUpdater, Properties aState)
+        throws IOException
+    {
+        File tmp = new File(aTarget.getPath() + ".tmp");
+        try (ArchiveOutputStream archive = new ZipArchiveOutputStream(tmp)) {
+            // Write tagset
+            {
+                ZipArchiveEntry entry = new ZipArchiveEntry(TAGSET_ENTRY);
+                archive.putArchiveEntry(entry);
+                for (String tag : aTagset) {
+                    archive.write(tag.getBytes(StandardCharsets.UTF_8));
+                    archive.write("\n".getBytes(StandardCharsets.UTF_8));
+                }
+                archive.closeArchiveEntry();
+            }
+            
+            // Write model
+            {
+                ZipArchiveEntry entry = new ZipArchiveEntry(MODEL_ENTRY);
+                archive.putArchiveEntry(entry);
+                ModelSerializer.writeModel(aNetwork, new CloseShieldOutputStream(archive),
+                        aSaveUpdater);
+                archive.closeArchiveEntry();
+            }
+            
+            // Write training state
+            if (aState != null) {
+                ZipArchiveEntry entry = new ZipArchiveEntry(STATE_ENTRY);
+                archive.putArchiveEntry(entry);
+                aState.store(new CloseShieldOutputStream(archive), null);
+                archive.closeArchiveEntry();
+            }
+        }
+        
+        Files.move(tmp.toPath(), aTarget.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read a model archive.
+     *
+     * @param aLoadUpdater
+     *            whether to restore the updater state, e.g. to continue training.
+     */
+    public static ModelArchive read(File aSource, boolean aLoadUpdater)
+        throws IOException
+    {
+        try (ZipFile archive = new ZipFile(aSource)) {
+            // Read tagset
+            String[] tagset;
+            try (InputStream content = archive.getInputStream(archive.getEntry(TAGSET_ENTRY))) {
+                List<String> tags = IOUtils.readLines(content, StandardCharsets.UTF_8);
+                tagset = tags.toArray(new String[tags.size()]);
+            }
+
+            // Read model
+            MultiLayerNetwork network;
+            try (InputStream content = archive.getInputStream(archive.getEntry(MODEL_ENTRY))) {
+                network = ModelSerializer.restoreMultiLayerNetwork(content, aLoadUpdater);
+            }
+            
+            // Read training state
+            Properties state = new Properties();
+            if (archive.getEntry(STATE_ENTRY) != null) {
+                try (InputStream content = archive
+                        .getInputStream(archive.getEntry(STATE_ENTRY))) {
+                    state.load(content);
+                }
+            }
+            
+            return new ModelArchive(tagset, network, state);
+        }
+    }
+
+    /**
+     * Write a bundle consisting of the tagset and network of an existing model archive plus the
+     * given embeddings. The embeddings are stored without compression so they can be mapped into
+     * memory from within the bundle.
+     */
+    public static void writeBundle(File aTarget, File aModel, Path aEmbeddings)
+        throws IOException
+    {
+        File tmp = new File(aTarget.getPath() + ".tmp");
+        try (
+                ZipFile model = new ZipFile(aModel);
+                ArchiveOutputStream archive = new ZipArchiveOutputStream(tmp);
+        ) {
+            for (String name : new String[] { TAGSET_ENTRY, MODEL_ENTRY }) {
+                archive.putArchiveEntry(new ZipArchiveEntry(name));
+                try (InputStream content = model.getInputStream(model.getEntry(name))) {
+                    IOUtils.copy(content, archive);
+                }
+                archive.closeArchiveEntry();
+            }
+            
+            // Size and checksum are filled in after the data has been written, which is possible
+            // because the archive is written to a file
+            ZipArchiveEntry entry = new ZipArchiveEntry(EMBEDDINGS_ENTRY);
+            entry.setMethod(ZipArchiveEntry.STORED);
+            archive.putArchiveEntry(entry);
+            Files.copy(aEmbeddings, archive);
+            archive.closeArchiveEntry();
+        }
+        
+        Files.move(tmp.toPath(), aTarget.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Locate the embeddings within a bundle.
+     * 
+     * @return the position of the embeddings in the file or {@code -1} if the archive does not
+     *         contain embeddings.
+     * @see BinaryVectorizerRegistry#acquire(Path, long)
+     */
+    public static long getEmbeddingsOffset(File aSource)
+        throws IOException
+    {
+        try (ZipFile archive = new ZipFile(aSource)) {
+            ZipArchiveEntry entry = archive.getEntry(EMBEDDINGS_ENTRY);
+            if (entry == null) {
+                return -1;
+            }
+            
+            if (entry.getMethod() != ZipArchiveEntry.STORED) {
+                throw new IOException("Embeddings in [" + aSource
+                        + "] are compressed and cannot be mapped");
+            }
+            
+            return entry.getDataOffset();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * JVM-wide cache of tagger models. A model archive is read and deserialized only once, no matter
+ * how many tagger instances use it. Every user gets its own network instance - forward passes
+ * keep intermediate state in the network, so instances cannot be shared between threads - but
+ * all instances are views on the same parameter array. A network obtained from the cache must
+ * therefore only be used for inference.
+ * <p>
+ * Models are identified by their real path and last-modified time, so a model file which is
+ * replaced while the JVM is running is picked up by tagger instances created afterwards.
+ * <p>
+ * Every {@link #acquire(File)} must be matched by a {@link #release(MultiLayerNetwork)}. When
+ * the last user of a model has released it, the model is dropped from the cache.
+ */
+public final class ModelCache
+{
+    private static final Map<Path, Entry> ENTRIES = new HashMap<>();
+    private static final Map<MultiLayerNetwork, Entry> USERS = new IdentityHashMap<>();
+
+    private ModelCache()
+    {
+        // No instances
+    }
+
+    /**
+     * Get a network for inference and the tagset for the given model archive.
+     */
+    public static synchronized ModelArchive acquire(File aModel)
+        throws IOException
+    {
+        Path key = aModel.toPath().toRealPath();
+        long lastModified = Files.getLastModifiedTime(key).toMillis();
+        
+        Entry entry = ENTRIES.get(key);
+        if (entry == null || entry.lastModified != lastModified) {
+            // A stale entry stays alive until all of its current users have released it
+            entry = new Entry(key, lastModified, ModelArchive.read(key.toFile(), false));
+            ENTRIES.put(key, entry);
+        }
+        
+        // Cheap copy: the new network only gets its own configuration and layer state, the
+        // parameters are not copied
+        MultiLayerNetwork network = new MultiLayerNetwork(entry.configuration.clone());
+        network.init(entry.parameters, false);
+        
+        entry.references++;
+        USERS.put(network, entry);
+        return new ModelArchive(entry.tagset, network, entry.state);
+    }
+
+    /**
+     * Give up a network previously obtained through {@link #acquire(File)}.
+     */
+    public static synchronized void release(MultiLayerNetwork aNetwork)
+    {
+        Entry entry = USERS.remove(aNetwork);
+        if (entry == null) {
+            throw new IllegalStateException("Network is not registered");
+        }
+        
+        entry.references--;
+        if (entry.references == 0 && ENTRIES.get(entry.path) == entry) {
+            ENTRIES.remove(entry.path);
+        }
+    }
+
+    /**
+     * @return the number of users of the given model or {@code 0} if it is not cached.
+     */
+    public static synchronized int getReferenceCount(File aModel)
+        throws IOException
+    {
+        Entry entry = ENTRIES.get(aModel.toPath().toRealPath());
+        return entry != null ? entry.references : 0;
+    }
+
+    private static class Entry
+    {
+        final Path path;
+        final long lastModified;
+        final String[] tagset;
+        final Properties state;
+        final MultiLayerConfiguration configuration;
+        final INDArray parameters;
+        int references;
+
+        Entry(Path aPath, long aLastModified, ModelArchive aArchive)
+        {
+            path = aPath;
+            lastModified = aLastModified;
+            tagset = aArchive.getTagset();
+            state = aArchive.getState();
+            configuration = aArchive.getNetwork().getLayerWiseConfigurations();
+            parameters = aArchive.getNetwork().params();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import static java.util.Comparator.comparingDouble;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.BinaryVectorizer;
+
+/**
+ * Exact nearest-neighbour search by cosine similarity over the memory-mapped vectors of a
+ * {@link BinaryVectorizer}. The norms of all vectors are computed once when the search is created.
+ * A query scans all vectors, split into chunks which are processed in parallel.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class NearestNeighbors
+{
+    // Number of vectors scanned by a single task
+    private static final int CHUNK_SIZE = 16 * 1024;
+    
+    private final BinaryVectorizer vectors;
+    private final float[] norms;
+    
+    public NearestNeighbors(BinaryVectorizer aVectors)
+    {
+        vectors = aVectors;
+        
+        int size = aVectors.getVectorSize();
+        norms = new float[aVectors.getVocabulary().size()];
+        IntStream.range(0, chunkCount()).parallel().forEach(chunk -> {
+            float[] vector = new float[size];
+            for (int i = chunkStart(chunk); i < chunkEnd(chunk); i++) {
+                aVectors.vectorizeInto(i, vector, 0);
+                norms[i] = (float) Math.sqrt(dot(vector, vector));
+            }
+        });
+    }
+    
+    /**
+     * @return the norm of the vector at the given position in the vocabulary.
+     */
+    public float norm(int aIndex)
+    {
+        return norms[aIndex];
+    }
+    
+    /**
+     * Find the words most similar to the given word. The word itself is not included in the
+     * result.
+     * 
+     * @return the neighbours, most similar first. Empty if the word is unknown.
+     */
+    public List<Neighbor> nearest(String aWord, int aK)
+    {
+        checkK(aK);
+        
+        int index = vectors.indexOf(aWord);
+        if (index < 0) {
+            return new ArrayList<>();
+        }
+        
+        float[] query = new float[vectors.getVectorSize()];
+        vectors.vectorizeInto(index, query, 0);
+        return nearest(query, aK, index);
+    }
+    
+    /**
+     * Find the words most similar to the given vector.
+     * 
+     * @param aExclude
+     *            position of a word to leave out of the result or {@code -1}.
+     * @return the neighbours, most similar first.
+     */
+    public List<Neighbor> nearest(float[] aQuery, int aK, int aExclude)
+    {
+        checkK(aK);
+        
+        float queryNorm = (float) Math.sqrt(dot(aQuery, aQuery));
+        if (queryNorm == 0.0f) {
+            return new ArrayList<>();
+        }
+        
+        // Every chunk collects its own top-K, these are merged in the end
+        List<PriorityQueue<Neighbor>> partial = IntStream.range(0, chunkCount()).parallel()
+                .mapToObj(chunk -> {
+                    PriorityQueue<Neighbor> top = new PriorityQueue<>(
+                            comparingDouble(Neighbor::getSimilarity));
+                    float[] vector = new float[aQuery.length];
+                    for (int i = chunkStart(chunk); i < chunkEnd(chunk); i++) {
+                        if (i == aExclude || norms[i] == 0.0f) {
+                            continue;
+                        }
+                        
+                        vectors.vectorizeInto(i, vector, 0);
+                        float similarity = dot(aQuery, vector) / (queryNorm * norms[i]);
+                        offer(top, aK, i, similarity);
+                    }
+                    return top;
+                })
+                .collect(Collectors.toList());
+        
+        PriorityQueue<Neighbor> top = new PriorityQueue<>(
+                comparingDouble(Neighbor::getSimilarity));
+        for (PriorityQueue<Neighbor> p : partial) {
+            for (Neighbor n : p) {
+                offer(top, aK, n.index, n.similarity);
+            }
+        }
+        
+        return toList(top);
+    }
+    
+    private void offer(PriorityQueue<Neighbor> aTop, int aK, int aIndex, float aSimilarity)
+    {
+        if (aTop.size() < aK) {
+            aTop.add(new Neighbor(vectors, aIndex, aSimilarity));
+        }
+        else if (aSimilarity > aTop.peek().similarity) {
+            aTop.poll();
+            aTop.add(new Neighbor(vectors, aIndex, aSimilarity));
+        }
+    }
+    
+    static void checkK(int aK)
+    {
+        if (aK < 1) {
+            throw new IllegalArgumentException(
+                    "Number of neighbours must be at least 1 but was [" + aK + "]");
+        }
+    }
+    
+    /**
+     * Drain a min-heap into a list sorted by descending similarity.
+     */
+    static List<Neighbor> toList(PriorityQueue<Neighbor> aTop)
+    {
+        Neighbor[] sorted = new Neighbor[aTop.size()];
+        for (int i = sorted.length - 1; i >= 0; i--) {
+            sorted[i] = aTop.poll();
+        }
+        return new ArrayList<>(Arrays.asList(sorted));
+    }
+    
+    /**
+     * Dot product with four independent accumulators, which lets the JIT pipeline and vectorize
+     * the loop rather than waiting on a single running sum.
+     */
+    static float dot(float[] aA, float[] aB)
+    {
+        float s0 = 0.0f;
+        float s1 = 0.0f;
+        float s2 = 0.0f;
+        float s3 = 0.0f;
+        int i = 0;
+        int bound = aA.length & ~3;
+        for (; i < bound; i += 4) {
+            s0 += aA[i] * aB[i];
+            s1 += aA[i + 1] * aB[i + 1];
+            s2 += aA[i + 2] * aB[i + 2];
+            s3 += aA[i + 3] * aB[i + 3];
+        }
+        for (; i < aA.length; i++) {
+            s0 += aA[i] * aB[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+    
+    private int chunkCount()
+    {
+        return (norms.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+    
+    private static int chunkStart(int aChunk)
+    {
+        return aChunk * CHUNK_SIZE;
+    }
+    
+    private int chunkEnd(int aChunk)
+    {
+        return Math.min((aChunk + 1) * CHUNK_SIZE, norms.length);
+    }
+    
+    /**
+     * A word found by a nearest-neighbour search.
+     */
+    public static class Neighbor
+    {
+        private final BinaryVectorizer vectors;
+        private final int index;
+        private final float similarity;
+        
+        Neighbor(BinaryVectorizer aVectors, int aIndex, float aSimilarity)
+        {
+            vectors = aVectors;
+            index = aIndex;
+            similarity = aSimilarity;
+        }
+        
+        /**
+         * @return the position of the word in the vocabulary.
+         */
+        public int getIndex()
+        {
+            return index;
+        }
+        
+        public String getWord()
+        {
+            return vectors.getVocabulary().get(index);
+        }
+        
+        /**
+         * @return the cosine similarity to the query.
+         */
+        public float getSimilarity()
+        {
+            return similarity;
+        }
+        
+        @Override
+        public String toString()
+        {
+            return getWord() + "=" + similarity;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+
+/**
+ * Assembles the upcoming mini-batches of a {@link SentenceBatchIterator} on background threads
+ * while the network is training on the current one. Sentences are taken from the source in
+ * order and the batches are returned in the same order, only the construction of the tensors
+ * happens in parallel.
+ * <p>
+ * Since this iterator is already asynchronous, it reports that it does not support asynchronous
+ * use. Otherwise DL4J would wrap it into yet another prefetching iterator.
+ */
+public class PrefetchingIterator
+    implements DataSetIterator, AutoCloseable
+{
+    private static final long serialVersionUID = 1L;
+
+    private final SentenceBatchIterator source;
+    private final int queueDepth;
+    private final transient ExecutorService workers;
+    private final transient Deque<Pending> queue = new ArrayDeque<>();
+
+    /**
+     * @param aSource
+     *            the iterator providing the sentences.
+     * @param aQueueDepth
+     *            the maximum number of batches prepared ahead of time.
+     * @param aWorkers
+     *            the number of threads assembling batches.
+     */
+    public PrefetchingIterator(SentenceBatchIterator aSource, int aQueueDepth, int aWorkers)
+    {
+        if (aQueueDepth < 1) {
+            throw new IllegalArgumentException(
+                    "Queue depth must be at least 1 but was [" + aQueueDepth + "]");
+        }
+        if (aWorkers < 1) {
+            throw new IllegalArgumentException(
+                    "Number of workers must be at least 1 but was [" + aWorkers + "]");
+        }
+        
+        source = aSource;
+        queueDepth = aQueueDepth;
+        
+        AtomicInteger threadCount = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(aWorkers, runnable -> {
+            Thread thread = new Thread(runnable,
+                    "batch-prefetch-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        return !queue.isEmpty() || source.hasNext();
+    }
+
+    @Override
+    public DataSet next()
+    {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        
+        fill();
+        Future<DataSet> batch = queue.poll().batch;
+        
+        // Keep the workers busy while the caller processes the batch
+        fill();
+        
+        try {
+            return batch.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for batch", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Assemble a batch from the next {@code aNum} sentences. The sentences of batches which have
+     * already been prefetched are taken over first, so no sentence is skipped or repeated. This
+     * batch is assembled on the calling thread.
+     */
+    @Override
+    public DataSet next(int aNum)
+    {
+        if (aNum < 1) {
+            throw new IllegalArgumentException(
+                    "Number of sentences must be at least 1 but was [" + aNum + "]");
+        }
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        
+        List<EncodedSentence> sentences = new ArrayList<>(aNum);
+        while (sentences.size() < aNum && !queue.isEmpty()) {
+            Pending pending = queue.poll();
+            pending.batch.cancel(true);
+            
+            int count = Math.min(aNum - sentences.size(), pending.sentences.size());
+            sentences.addAll(pending.sentences.subList(0, count));
+            if (count < pending.sentences.size()) {
+                // The rest of the prefetched batch stays first in line
+                queue.addFirst(submit(new ArrayList<>(
+                        pending.sentences.subList(count, pending.sentences.size()))));
+            }
+        }
+        
+        try {
+            if (sentences.size() < aNum && source.hasNext()) {
+                sentences.addAll(source.nextSentences(aNum - sentences.size()));
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        
+        DataSet batch = source.assemble(sentences);
+        fill();
+        return batch;
+    }
+
+    @Override
+    public void reset()
+    {
+        discardPrefetched();
+        source.reset();
+        fill();
+    }
+
+    /**
+     * Stop the worker threads. Batches which have not been retrieved yet are discarded.
+     */
+    @Override
+    public void close()
+    {
+        discardPrefetched();
+        workers.shutdownNow();
+    }
+
+    @Override
+    public int inputColumns()
+    {
+        return source.inputColumns();
+    }
+
+    @Override
+    public int totalOutcomes()
+    {
+        return source.totalOutcomes();
+    }
+
+    @Override
+    public boolean resetSupported()
+    {
+        return source.resetSupported();
+    }
+
+    @Override
+    public boolean asyncSupported()
+    {
+        return false;
+    }
+
+    @Override
+    public int batch()
+    {
+        return source.batch();
+    }
+
+    @Override
+    public void setPreProcessor(DataSetPreProcessor aPreProcessor)
+    {
+        source.setPreProcessor(aPreProcessor);
+    }
+
+    @Override
+    public DataSetPreProcessor getPreProcessor()
+    {
+        return source.getPreProcessor();
+    }
+
+    @Override
+    public List<String> getLabels()
+    {
+        return source.getLabels();
+    }
+
+    private void fill()
+    {
+        try {
+            // Reading the sentences is cheap and must happen in order, so it is done here.
+            // Only the expensive tensor assembly is handed to the workers.
+            while (queue.size() < queueDepth && source.hasNext()) {
+                queue.add(submit(source.nextSentences()));
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Pending submit(List<EncodedSentence> aSentences)
+    {
+        return new Pending(aSentences, workers.submit(() -> source.assemble(aSentences)));
+    }
+
+    private void discardPrefetched()
+    {
+        for (Pending pending : queue) {
+            pending.batch.cancel(true);
+        }
+        queue.clear();
+    }
+
+    /**
+     * A batch being assembled together with the sentences it is made of.
+     */
+    private static class Pending
+    {
+        final List<EncodedSentence> sentences;
+        final Future<DataSet> batch;
+
+        Pending(List<EncodedSentence> aSentences, Future<DataSet> aBatch)
+        {
+            sentences = aSentences;
+            batch = aBatch;
+        }
+    }
+}
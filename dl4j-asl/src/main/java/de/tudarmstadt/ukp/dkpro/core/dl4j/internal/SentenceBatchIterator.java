@@ -0,0 +1,311 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.BinaryVectorizer;
+
+/**
+ * Iterates over mini-batches of {@link EncodedSentence encoded sentences}. The dense feature and
+ * label tensors of a mini-batch are assembled from the word vectors only when the batch is
+ * requested, so only the compact encoded form of the training data needs to be kept around.
+ * <p>
+ * By default, the sentences are batched in their original order. If shuffling is enabled, the
+ * batches are rebuilt on every {@link #reset()}: sentences of the same length are put into random
+ * order, the sentences are cut into batches of similar length and the order of the batches is
+ * randomized. Each batch is then padded only to its own longest sentence, which is usually close
+ * to the length of its shortest one.
+ */
+public abstract class SentenceBatchIterator
+    implements DataSetIterator
+{
+    private static final long serialVersionUID = 1L;
+
+    private final transient BinaryVectorizer wordVectors;
+    private final int batchSize;
+    private final int maxTagsetSize;
+    private DataSetPreProcessor preProcessor;
+    private Random shuffle;
+
+    private int[][] schedule;
+    private int cursor;
+    // Position within the current batch if a previous next(int) stopped in the middle of it
+    private int offset;
+    private long tokenCount;
+    private long timestepCount;
+
+    protected SentenceBatchIterator(BinaryVectorizer aWordVectors, int aBatchSize,
+            int aMaxTagsetSize)
+    {
+        wordVectors = aWordVectors;
+        batchSize = aBatchSize;
+        maxTagsetSize = aMaxTagsetSize;
+    }
+
+    /**
+     * @return the total number of sentences.
+     */
+    protected abstract int sentenceCount();
+
+    /**
+     * @return the length of the given sentence.
+     */
+    protected abstract int sentenceLength(int aIndex);
+
+    /**
+     * @return the given sentence.
+     */
+    protected abstract EncodedSentence sentence(int aIndex)
+        throws IOException;
+
+    /**
+     * Enable length-bucketed shuffling of the batches using the given random number generator or
+     * disable it by passing {@code null}. Takes effect on the next {@link #reset()}.
+     */
+    public void setShuffle(Random aRandom)
+    {
+        shuffle = aRandom;
+    }
+
+    /**
+     * @return the number of tokens in the batches retrieved since the last {@link #reset()}.
+     */
+    public long getTokenCount()
+    {
+        return tokenCount;
+    }
+
+    /**
+     * @return the number of timesteps including padding in the batches retrieved since the last
+     *         {@link #reset()}.
+     */
+    public long getTimestepCount()
+    {
+        return timestepCount;
+    }
+
+    /**
+     * @return the fraction of timesteps which were padding in the batches retrieved since the
+     *         last {@link #reset()}.
+     */
+    public double getPaddingRatio()
+    {
+        return timestepCount > 0 ? 1.0 - (double) tokenCount / timestepCount : 0.0;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if (schedule == null) {
+            schedule = schedule();
+        }
+        
+        return cursor < schedule.length;
+    }
+
+    @Override
+    public DataSet next()
+    {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        
+        try {
+            return assemble(nextSentences());
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Assemble a batch from the next {@code aNum} sentences in the schedule, regardless of how the
+     * sentences were grouped into batches. The batch is smaller if fewer sentences are left.
+     */
+    @Override
+    public DataSet next(int aNum)
+    {
+        if (aNum < 1) {
+            throw new IllegalArgumentException(
+                    "Number of sentences must be at least 1 but was [" + aNum + "]");
+        }
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        
+        try {
+            return assemble(nextSentences(aNum));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void reset()
+    {
+        schedule = schedule();
+        cursor = 0;
+        offset = 0;
+        tokenCount = 0;
+        timestepCount = 0;
+    }
+
+    /**
+     * @return the sentences of the next batch. Called only if {@link #hasNext()} is
+     *         {@code true}.
+     */
+    List<EncodedSentence> nextSentences()
+        throws IOException
+    {
+        return nextSentences(schedule[cursor].length - offset);
+    }
+
+    /**
+     * @return the next sentences in the schedule, continuing into the following batches if
+     *         necessary. Fewer sentences are returned if the schedule is exhausted. Called only if
+     *         {@link #hasNext()} is {@code true}.
+     */
+    List<EncodedSentence> nextSentences(int aNum)
+        throws IOException
+    {
+        List<EncodedSentence> sentences = new ArrayList<>(aNum);
+        int maxLength = 0;
+        while (sentences.size() < aNum && cursor < schedule.length) {
+            int[] batch = schedule[cursor];
+            while (sentences.size() < aNum && offset < batch.length) {
+                EncodedSentence sentence = sentence(batch[offset]);
+                offset++;
+                sentences.add(sentence);
+                tokenCount += sentence.length();
+                maxLength = Math.max(maxLength, sentence.length());
+            }
+            
+            if (offset == batch.length) {
+                cursor++;
+                offset = 0;
+            }
+        }
+        timestepCount += (long) maxLength * sentences.size();
+        
+        return sentences;
+    }
+
+    /**
+     * Build the tensors for a mini-batch. This is thread-safe, so batches can be assembled in
+     * parallel once the sentences have been obtained from {@link #nextSentences()}.
+     */
+    DataSet assemble(List<EncodedSentence> aSentences)
+    {
+        DataSet batch = Vectorize.vectorize(aSentences, wordVectors, maxTagsetSize);
+        if (preProcessor != null) {
+            preProcessor.preProcess(batch);
+        }
+        return batch;
+    }
+
+    private int[][] schedule()
+    {
+        Integer[] order = new Integer[sentenceCount()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        
+        if (shuffle != null) {
+            // Shuffle first, then use a stable sort so sentences of equal length stay shuffled
+            Collections.shuffle(Arrays.asList(order), shuffle);
+            Arrays.sort(order, Comparator.comparingInt(this::sentenceLength));
+        }
+        
+        List<int[]> batches = new ArrayList<>();
+        for (int start = 0; start < order.length; start += batchSize) {
+            int[] batch = new int[Math.min(batchSize, order.length - start)];
+            for (int i = 0; i < batch.length; i++) {
+                batch[i] = order[start + i];
+            }
+            batches.add(batch);
+        }
+        
+        if (shuffle != null) {
+            Collections.shuffle(batches, shuffle);
+        }
+        
+        return batches.toArray(new int[batches.size()][]);
+    }
+
+    @Override
+    public int inputColumns()
+    {
+        return wordVectors.getVectorSize();
+    }
+
+    @Override
+    public int totalOutcomes()
+    {
+        return maxTagsetSize;
+    }
+
+    @Override
+    public boolean resetSupported()
+    {
+        return true;
+    }
+
+    @Override
+    public boolean asyncSupported()
+    {
+        return true;
+    }
+
+    @Override
+    public int batch()
+    {
+        return batchSize;
+    }
+
+    @Override
+    public void setPreProcessor(DataSetPreProcessor aPreProcessor)
+    {
+        preProcessor = aPreProcessor;
+    }
+
+    @Override
+    public DataSetPreProcessor getPreProcessor()
+    {
+        return preProcessor;
+    }
+
+    @Override
+    public List<String> getLabels()
+    {
+        return null;
+    }
+}
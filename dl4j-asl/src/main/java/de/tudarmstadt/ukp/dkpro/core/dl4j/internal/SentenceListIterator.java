@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import java.util.List;
+
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.BinaryVectorizer;
+
+/**
+ * Iterates over mini-batches of encoded sentences held in memory.
+ */
+public class SentenceListIterator
+    extends SentenceBatchIterator
+{
+    private static final long serialVersionUID = 1L;
+
+    private final List<EncodedSentence> sentences;
+
+    public SentenceListIterator(List<EncodedSentence> aSentences, BinaryVectorizer aWordVectors,
+            int aBatchSize, int aMaxTagsetSize)
+    {
+        super(aWordVectors, aBatchSize, aMaxTagsetSize);
+        sentences = aSentences;
+    }
+
+    @Override
+    protected int sentenceCount()
+    {
+        return sentences.size();
+    }
+
+    @Override
+    protected int sentenceLength(int aIndex)
+    {
+        return sentences.get(aIndex).length();
+    }
+
+    @Override
+    protected EncodedSentence sentence(int aIndex)
+    {
+        return sentences.get(aIndex);
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.BinaryVectorizer;
+
+/**
+ * Collects encoded training sentences on disk so that the amount of training data is not limited
+ * by the heap. Sentences are appended to a spool file as they are added. Once {@link #finish()}
+ * has been called, they can be read back in mini-batches any number of times, e.g. once per
+ * training epoch.
+ * <p>
+ * Each sentence is stored as its length followed by the word indexes and the tag indexes. Only
+ * the length of each sentence is kept in memory, so sentences can also be read in random order
+ * when the batches are shuffled.
+ */
+public class SentenceSpool
+    implements Closeable
+{
+    private final File file;
+
+    private DataOutputStream out;
+    private FileChannel in;
+    private int[] lengths = new int[1024];
+    private long[] offsets;
+    private int sentenceCount;
+
+    public SentenceSpool(File aFile)
+        throws IOException
+    {
+        file = aFile;
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(aFile)));
+    }
+
+    public void add(EncodedSentence aSentence)
+        throws IOException
+    {
+        if (out == null) {
+            throw new IllegalStateException("Spool has already been finished");
+        }
+        
+        out.writeInt(aSentence.length());
+        for (int word : aSentence.getWords()) {
+            out.writeInt(word);
+        }
+        for (int tag : aSentence.getTags()) {
+            out.writeInt(tag);
+        }
+        
+        if (sentenceCount == lengths.length) {
+            lengths = Arrays.copyOf(lengths, lengths.length * 2);
+        }
+        lengths[sentenceCount] = aSentence.length();
+        sentenceCount++;
+    }
+
+    /**
+     * Close the spool file for writing and open it for reading.
+     */
+    public void finish()
+        throws IOException
+    {
+        if (out == null) {
+            return;
+        }
+        
+        out.close();
+        out = null;
+        
+        offsets = new long[sentenceCount];
+        long offset = 0;
+        for (int i = 0; i < sentenceCount; i++) {
+            offsets[i] = offset;
+            offset += recordSize(lengths[i]);
+        }
+        
+        in = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+
+    public int getSentenceCount()
+    {
+        return sentenceCount;
+    }
+
+    /**
+     * @return an iterator reading the sentences from disk in mini-batches. Only the current
+     *         batch is held in memory.
+     */
+    public SentenceBatchIterator iterator(BinaryVectorizer aWordVectors, int aBatchSize,
+            int aMaxTagsetSize)
+    {
+        if (out != null) {
+            throw new IllegalStateException("Spool must be finished before it can be read");
+        }
+        
+        return new SpoolIterator(aWordVectors, aBatchSize, aMaxTagsetSize);
+    }
+
+    /**
+     * Delete the spool file.
+     */
+    @Override
+    public void close()
+        throws IOException
+    {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        
+        if (in != null) {
+            in.close();
+            in = null;
+        }
+        
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Unable to delete spool file [" + file + "]");
+        }
+    }
+
+    private EncodedSentence read(int aIndex)
+        throws IOException
+    {
+        int length = lengths[aIndex];
+        
+        // Positional reads do not move the channel, so concurrent iterators do not interfere
+        ByteBuffer buffer = ByteBuffer.allocate(recordSize(length));
+        long position = offsets[aIndex];
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Spool file [" + file + "] is truncated");
+            }
+        }
+        buffer.flip();
+        
+        buffer.getInt();
+        int[] words = new int[length];
+        buffer.asIntBuffer().get(words);
+        buffer.position(buffer.position() + length * Integer.BYTES);
+        int[] tags = new int[length];
+        buffer.asIntBuffer().get(tags);
+        return new EncodedSentence(words, tags);
+    }
+
+    private static int recordSize(int aLength)
+    {
+        return Integer.BYTES + 2 * aLength * Integer.BYTES;
+    }
+
+    private class SpoolIterator
+        extends SentenceBatchIterator
+    {
+        private static final long serialVersionUID = 1L;
+
+        public SpoolIterator(BinaryVectorizer aWordVectors, int aBatchSize, int aMaxTagsetSize)
+        {
+            super(aWordVectors, aBatchSize, aMaxTagsetSize);
+        }
+
+        @Override
+        protected int sentenceCount()
+        {
+            return sentenceCount;
+        }
+
+        @Override
+        protected int sentenceLength(int aIndex)
+        {
+            return lengths[aIndex];
+        }
+
+        @Override
+        protected EncodedSentence sentence(int aIndex)
+            throws IOException
+        {
+            return read(aIndex);
+        }
+    }
+}
@@ -0,0 +1,529 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.Header;
+
+/**
+ * Converts word vectors from the GloVe or word2vec formats into a binary word vectors file
+ * without loading the whole model into memory.
+ * <p>
+ * The input is read sequentially and cut into chunks which are parsed, encoded and sorted by a
+ * pool of worker threads. Each chunk is written to a temporary <i>run</i> file. The runs are then
+ * merged into the final file. Only a bounded number of chunks is in memory at any time. Apart
+ * from that, only the vocabulary itself is kept in memory because it is needed to build the word
+ * index.
+ * <p>
+ * If a word occurs multiple times in the input, its first occurrence is used.
+ */
+public class StreamingVectorConverter
+{
+    public enum Format
+    {
+        /**
+         * One word per line followed by the vector components, separated by spaces.
+         */
+        GLOVE,
+        
+        /**
+         * Like {@link #GLOVE} but with a first line stating the number of words and the vector
+         * length.
+         */
+        WORD2VEC_TEXT,
+        
+        /**
+         * The binary format of the original word2vec tool.
+         */
+        WORD2VEC_BINARY
+    }
+    
+    // Maximum number of runs merged at once - more runs are merged in several passes
+    private static final int MAX_FAN_IN = 64;
+    
+    private final Format format;
+    
+    private boolean caseless = false;
+    private Locale locale = Locale.US;
+    private VectorEncoding encoding = VectorEncoding.FLOAT32;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int runSize = 100_000;
+    private float[] unk;
+    
+    public StreamingVectorConverter(Format aFormat)
+    {
+        format = aFormat;
+    }
+    
+    public void setCaseless(boolean aCaseless)
+    {
+        caseless = aCaseless;
+    }
+    
+    public void setLocale(Locale aLocale)
+    {
+        locale = aLocale;
+    }
+    
+    public void setEncoding(VectorEncoding aEncoding)
+    {
+        encoding = aEncoding;
+    }
+    
+    /**
+     * Number of threads parsing the input. The thread reading the input comes on top.
+     */
+    public void setThreads(int aThreads)
+    {
+        threads = aThreads;
+    }
+    
+    /**
+     * Number of words per run. Together with the number of threads, this determines how many
+     * vectors are held in memory at a time.
+     */
+    public void setRunSize(int aRunSize)
+    {
+        runSize = aRunSize;
+    }
+    
+    /**
+     * The vector for unknown words. By default, a small random vector is used.
+     */
+    public void setUnk(float[] aUnk)
+    {
+        unk = aUnk;
+    }
+    
+    public void convert(Path aSource, Path aTarget)
+        throws IOException
+    {
+        Path workDir = Files.createTempDirectory("dl4jw2v");
+        try {
+            RunWriter runs = new RunWriter(workDir);
+            List<Path> runFiles;
+            try (InputStream is = new BufferedInputStream(Files.newInputStream(aSource))) {
+                if (format == Format.WORD2VEC_BINARY) {
+                    readWord2VecBinary(is, runs);
+                }
+                else {
+                    readText(is, runs);
+                }
+                runFiles = runs.await();
+            }
+            finally {
+                runs.shutdown();
+            }
+            
+            if (runs.vectorLength == 0) {
+                throw new IOException("No vectors found in [" + aSource + "]");
+            }
+            
+            // Merge passes until the remaining runs can be merged at once
+            int recordSize = encoding.recordSize(runs.vectorLength);
+            int pass = 0;
+            while (runFiles.size() > MAX_FAN_IN) {
+                List<Path> merged = new ArrayList<>();
+                for (int i = 0; i < runFiles.size(); i += MAX_FAN_IN) {
+                    List<Path> group = runFiles.subList(i,
+                            Math.min(i + MAX_FAN_IN, runFiles.size()));
+                    Path target = workDir.resolve("merge-" + pass + "-" + merged.size());
+                    try (DataOutputStream out = openOutput(target)) {
+                        merge(group, recordSize, out, null);
+                    }
+                    for (Path run : group) {
+                        Files.delete(run);
+                    }
+                    merged.add(target);
+                }
+                runFiles = merged;
+                pass++;
+            }
+            
+            // Final merge - the vectors go into one file, the words are collected for the
+            // vocabulary
+            List<String> words = new ArrayList<>();
+            Path vectors = workDir.resolve("vectors");
+            try (DataOutputStream out = openOutput(vectors)) {
+                merge(runFiles, recordSize, out, words);
+            }
+            
+            float[] unkVector = unk;
+            if (unkVector == null) {
+                unkVector = BinaryWordVectorSerializer.makeUnk(runs.vectorLength).data()
+                        .asFloat();
+            }
+            
+            Header header = new Header(Header.VERSION, runs.vectorLength, caseless, locale,
+                    encoding);
+            BinaryWordVectorSerializer.writeBinary(header, words.toArray(new String[0]),
+                    unkVector, vectors, aTarget);
+        }
+        finally {
+            try (Stream<Path> files = Files.list(workDir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(workDir);
+        }
+    }
+    
+    private void readText(InputStream aInput, RunWriter aRuns)
+        throws IOException
+    {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(aInput, StandardCharsets.UTF_8));
+        
+        int vectorLength = -1;
+        if (format == Format.WORD2VEC_TEXT) {
+            String[] counts = reader.readLine().trim().split(" ");
+            vectorLength = Integer.parseInt(counts[1]);
+        }
+        
+        List<String> chunk = new ArrayList<>(runSize);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            
+            // GloVe files have no header, so the first line determines the vector length. Words
+            // may contain spaces, so this cannot be more than a guess.
+            if (vectorLength < 0) {
+                vectorLength = line.split(" ").length - 1;
+            }
+            
+            chunk.add(line);
+            if (chunk.size() == runSize) {
+                List<String> lines = chunk;
+                int length = vectorLength;
+                aRuns.submit(length, () -> parseLines(lines, length));
+                chunk = new ArrayList<>(runSize);
+            }
+        }
+        
+        if (!chunk.isEmpty()) {
+            List<String> lines = chunk;
+            int length = vectorLength;
+            aRuns.submit(length, () -> parseLines(lines, length));
+        }
+    }
+    
+    private List<Record> parseLines(List<String> aLines, int aVectorLength)
+        throws IOException
+    {
+        List<Record> records = new ArrayList<>(aLines.size());
+        for (String line : aLines) {
+            // The vector components are the last fields - everything before them is the word
+            String[] fields = line.split(" ");
+            int wordFields = fields.length - aVectorLength;
+            if (wordFields < 1) {
+                throw new IOException("Expected vectors of length " + aVectorLength
+                        + " but found line with " + (fields.length - 1) + " components");
+            }
+            
+            String word = wordFields == 1 ? fields[0]
+                    : String.join(" ", Arrays.asList(fields).subList(0, wordFields));
+            float[] vector = new float[aVectorLength];
+            for (int i = 0; i < aVectorLength; i++) {
+                vector[i] = Float.parseFloat(fields[wordFields + i]);
+            }
+            records.add(new Record(word, encode(vector)));
+        }
+        return records;
+    }
+    
+    private void readWord2VecBinary(InputStream aInput, RunWriter aRuns)
+        throws IOException
+    {
+        DataInputStream input = new DataInputStream(aInput);
+        
+        String[] counts = readToken(input, '\n').trim().split(" ");
+        int wordCount = Integer.parseInt(counts[0]);
+        int vectorLength = Integer.parseInt(counts[1]);
+        
+        // Reading the binary format is cheap, so the workers only encode the vectors
+        byte[] raw = new byte[vectorLength * Float.BYTES];
+        List<Object[]> chunk = new ArrayList<>(runSize);
+        for (int w = 0; w < wordCount; w++) {
+            String word = readToken(input, ' ').trim();
+            input.readFully(raw);
+            float[] vector = new float[vectorLength];
+            ByteBuffer.wrap(raw).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector);
+            chunk.add(new Object[] { word, vector });
+            
+            if (chunk.size() == runSize || w == wordCount - 1) {
+                List<Object[]> entries = chunk;
+                aRuns.submit(vectorLength, () -> {
+                    List<Record> records = new ArrayList<>(entries.size());
+                    for (Object[] entry : entries) {
+                        records.add(new Record((String) entry[0], encode((float[]) entry[1])));
+                    }
+                    return records;
+                });
+                chunk = new ArrayList<>(runSize);
+            }
+        }
+    }
+    
+    private static String readToken(DataInputStream aInput, char aDelimiter)
+        throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int b;
+        while ((b = aInput.read()) != aDelimiter) {
+            if (b == -1) {
+                throw new EOFException();
+            }
+            bytes.write(b);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+    
+    private byte[] encode(float[] aVector)
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(encoding.recordSize(aVector.length));
+        encoding.encode(aVector, buffer);
+        return buffer.array();
+    }
+    
+    /**
+     * Merge sorted runs. If {@code aWords} is {@code null}, the output is another run, otherwise
+     * only the vectors are written and the words are added to the list.
+     */
+    private static void merge(List<Path> aRuns, int aRecordSize, DataOutputStream aOut,
+            List<String> aWords)
+        throws IOException
+    {
+        // On equal words, the earlier run wins so the first occurrence in the input is kept
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(
+                Comparator.comparing((RunReader r) -> r.word).thenComparingInt(r -> r.order));
+        List<RunReader> readers = new ArrayList<>();
+        try {
+            for (Path run : aRuns) {
+                RunReader reader = new RunReader(run, readers.size(), aRecordSize);
+                readers.add(reader);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+            
+            String last = null;
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                if (!reader.word.equals(last)) {
+                    if (aWords != null) {
+                        aWords.add(reader.word);
+                    }
+                    else {
+                        aOut.writeUTF(reader.word);
+                    }
+                    aOut.write(reader.vector);
+                    last = reader.word;
+                }
+                
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+        }
+        finally {
+            for (RunReader reader : readers) {
+                reader.input.close();
+            }
+        }
+    }
+    
+    private static DataOutputStream openOutput(Path aPath)
+        throws IOException
+    {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(aPath)));
+    }
+    
+    private static class Record
+    {
+        final String word;
+        final byte[] vector;
+        
+        Record(String aWord, byte[] aVector)
+        {
+            word = aWord;
+            vector = aVector;
+        }
+    }
+    
+    private interface Parser
+    {
+        List<Record> parse()
+            throws IOException;
+    }
+    
+    /**
+     * Sorts parsed chunks and writes them as runs on a thread pool. Submitting blocks while all
+     * workers are busy and another chunk is waiting, which bounds the memory used.
+     */
+    private class RunWriter
+    {
+        private final Path workDir;
+        private final ExecutorService executor;
+        private final Semaphore slots;
+        private final List<Future<Path>> runs = new ArrayList<>();
+        int vectorLength;
+        
+        RunWriter(Path aWorkDir)
+        {
+            workDir = aWorkDir;
+            executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "dl4jw2v-converter");
+                thread.setDaemon(true);
+                return thread;
+            });
+            slots = new Semaphore(threads + 1);
+        }
+        
+        void submit(int aVectorLength, Parser aParser)
+            throws IOException
+        {
+            vectorLength = aVectorLength;
+            Path target = workDir.resolve("run-" + runs.size());
+            
+            try {
+                slots.acquire();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            
+            runs.add(executor.submit(() -> {
+                try {
+                    List<Record> records = aParser.parse();
+                    // Stable, so duplicates stay in input order
+                    records.sort(Comparator.comparing(r -> r.word));
+                    try (DataOutputStream out = openOutput(target)) {
+                        for (Record record : records) {
+                            out.writeUTF(record.word);
+                            out.write(record.vector);
+                        }
+                    }
+                    return target;
+                }
+                finally {
+                    slots.release();
+                }
+            }));
+        }
+        
+        /**
+         * Stop the workers. Runs which are still being written at this point, e.g. because reading
+         * the input failed, are abandoned.
+         */
+        void shutdown()
+            throws IOException
+        {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+        
+        List<Path> await()
+            throws IOException
+        {
+            List<Path> files = new ArrayList<>(runs.size());
+            try {
+                for (Future<Path> run : runs) {
+                    files.add(run.get());
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+            return files;
+        }
+    }
+    
+    private static class RunReader
+    {
+        final DataInputStream input;
+        final int order;
+        String word;
+        final byte[] vector;
+        
+        RunReader(Path aRun, int aOrder, int aRecordSize)
+            throws IOException
+        {
+            input = new DataInputStream(new BufferedInputStream(Files.newInputStream(aRun)));
+            order = aOrder;
+            vector = new byte[aRecordSize];
+        }
+        
+        boolean next()
+            throws IOException
+        {
+            try {
+                word = input.readUTF();
+            }
+            catch (EOFException e) {
+                return false;
+            }
+            input.readFully(vector);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.Header;
+
+/**
+ * CRC32 checksums of the sections of a version 2 binary word vectors file. The checksums are
+ * stored in a trailer directly behind the vectors, which readers not knowing about checksums
+ * simply ignore.
+ * <p>
+ * The header, the vocabulary and the UNK vector each have a single checksum. The vectors are
+ * split into blocks of {@link #BLOCK_SIZE} bytes which are checksummed separately, so they can be
+ * verified in parallel.
+ * <p>
+ * Layout of the trailer:
+ * <ul>
+ * <li>{@code byte[]} - {@link #MAGIC}</li>
+ * <li>{@code int} - block size</li>
+ * <li>{@code int} - checksum of the header</li>
+ * <li>{@code int} - checksum of the vocabulary section</li>
+ * <li>{@code int} - checksum of the UNK vector</li>
+ * <li>{@code int} - number of vector blocks</li>
+ * <li>{@code int[]} - checksum of each vector block</li>
+ * </ul>
+ */
+public class VectorChecksums
+{
+    public static final String MAGIC = "dl4jcrc";
+    
+    public static final int BLOCK_SIZE = 16 * 1024 * 1024;
+    
+    private int blockSize = BLOCK_SIZE;
+    int header;
+    int vocabulary;
+    int unk;
+    private final List<Integer> blocks = new ArrayList<>();
+    
+    // Used while the vectors are written
+    private final CRC32 block = new CRC32();
+    private int blockFill;
+    
+    /**
+     * Add vector data to the checksums. The position of the buffer is moved to its limit.
+     */
+    void updateVectors(ByteBuffer aData)
+    {
+        while (aData.hasRemaining()) {
+            ByteBuffer chunk = aData.duplicate();
+            int length = Math.min(chunk.remaining(), blockSize - blockFill);
+            chunk.limit(chunk.position() + length);
+            block.update(chunk);
+            aData.position(aData.position() + length);
+            
+            blockFill += length;
+            if (blockFill == blockSize) {
+                finishBlock();
+            }
+        }
+    }
+    
+    private void finishBlock()
+    {
+        blocks.add((int) block.getValue());
+        block.reset();
+        blockFill = 0;
+    }
+    
+    /**
+     * Write the trailer. Must be called after all vectors have been added.
+     */
+    void write(DataOutput aOutput)
+        throws IOException
+    {
+        if (blockFill > 0) {
+            finishBlock();
+        }
+        
+        aOutput.write(MAGIC.getBytes(StandardCharsets.US_ASCII));
+        aOutput.writeInt(blockSize);
+        aOutput.writeInt(header);
+        aOutput.writeInt(vocabulary);
+        aOutput.writeInt(unk);
+        aOutput.writeInt(blocks.size());
+        for (int crc : blocks) {
+            aOutput.writeInt(crc);
+        }
+    }
+    
+    /**
+     * Verify a binary word vectors file against its checksums. The vector blocks are checked in
+     * parallel.
+     * 
+     * @param aFile
+     *            the file containing the vectors.
+     * @param aOffset
+     *            the position of the vectors within the file.
+     * @param aThreads
+     *            the number of threads used to check the vectors.
+     * @throws IOException
+     *             if the file has no checksums or if a section does not match its checksum.
+     */
+    public static void verify(RandomAccessFile aFile, long aOffset, int aThreads)
+        throws IOException
+    {
+        Layout layout = Layout.read(aFile, aOffset);
+        layout.verifyHead();
+        
+        FileChannel channel = aFile.getChannel();
+        ExecutorService executor = Executors.newFixedThreadPool(aThreads, r -> {
+            Thread thread = new Thread(r, "dl4jw2v-verifier");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            long vectorsLength = layout.vectorsEnd - layout.unkEnd;
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < layout.checksums.blocks.size(); i++) {
+                long start = layout.unkEnd + (long) i * layout.checksums.blockSize;
+                long end = Math.min(start + layout.checksums.blockSize,
+                        layout.unkEnd + vectorsLength);
+                results.add(executor.submit(() -> crc(channel, start, end)));
+            }
+            
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i).get().intValue() != layout.checksums.blocks.get(i)) {
+                    throw new IOException("Checksum mismatch in vector block " + i);
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * Verify only the header, vocabulary and UNK vector. This is cheap compared to checking the
+     * vectors and catches truncated or mixed-up files.
+     * 
+     * @see #verify(RandomAccessFile, long, int)
+     */
+    public static void verifyHead(RandomAccessFile aFile, long aOffset)
+        throws IOException
+    {
+        Layout.read(aFile, aOffset).verifyHead();
+    }
+    
+    private static int crc(FileChannel aChannel, long aStart, long aEnd)
+        throws IOException
+    {
+        CRC32 crc = new CRC32();
+        crc.update(aChannel.map(FileChannel.MapMode.READ_ONLY, aStart, aEnd - aStart));
+        return (int) crc.getValue();
+    }
+    
+    /**
+     * Positions of the sections within a file plus the checksums stored in the file.
+     */
+    private static class Layout
+    {
+        FileChannel channel;
+        long start;
+        long headerEnd;
+        long vocabularyEnd;
+        long unkEnd;
+        long vectorsEnd;
+        VectorChecksums checksums;
+        
+        static Layout read(RandomAccessFile aFile, long aOffset)
+            throws IOException
+        {
+            Layout layout = new Layout();
+            layout.channel = aFile.getChannel();
+            layout.start = aOffset;
+            
+            aFile.seek(aOffset);
+            Header header = Header.read(aFile);
+            if (header.getVersion() < 2) {
+                throw new IOException("Version " + header.getVersion()
+                        + " files do not contain checksums");
+            }
+            layout.headerEnd = aFile.getFilePointer();
+            
+            MappedVocabulary.map(aFile, header.getWordCount());
+            layout.vocabularyEnd = aFile.getFilePointer();
+            layout.unkEnd = layout.vocabularyEnd + (long) header.getVectorLength() * Float.BYTES;
+            layout.vectorsEnd = layout.unkEnd + (long) header.getWordCount()
+                    * header.getEncoding().recordSize(header.getVectorLength());
+            
+            if (aFile.length() < layout.vectorsEnd + MAGIC.length()) {
+                throw new IOException("File does not contain checksums");
+            }
+            aFile.seek(layout.vectorsEnd);
+            byte[] magicBytes = new byte[MAGIC.length()];
+            aFile.readFully(magicBytes);
+            if (!MAGIC.equals(new String(magicBytes, StandardCharsets.US_ASCII))) {
+                throw new IOException("File does not contain checksums");
+            }
+            
+            VectorChecksums checksums = new VectorChecksums();
+            checksums.blockSize = aFile.readInt();
+            if (checksums.blockSize <= 0) {
+                throw new IOException("Invalid checksum block size " + checksums.blockSize);
+            }
+            checksums.header = aFile.readInt();
+            checksums.vocabulary = aFile.readInt();
+            checksums.unk = aFile.readInt();
+            
+            // The vectors section determines the number of blocks - a different count means the
+            // trailer is damaged or belongs to a different file
+            int blockCount = aFile.readInt();
+            long vectorsLength = layout.vectorsEnd - layout.unkEnd;
+            long expectedBlockCount = (vectorsLength + checksums.blockSize - 1)
+                    / checksums.blockSize;
+            if (blockCount != expectedBlockCount) {
+                throw new IOException("Expected checksums for " + expectedBlockCount
+                        + " vector blocks but found " + blockCount);
+            }
+            for (int i = 0; i < blockCount; i++) {
+                checksums.blocks.add(aFile.readInt());
+            }
+            layout.checksums = checksums;
+            
+            return layout;
+        }
+        
+        void verifyHead()
+            throws IOException
+        {
+            if (crc(channel, start, headerEnd) != checksums.header) {
+                throw new IOException("Checksum mismatch in header");
+            }
+            if (crc(channel, headerEnd, vocabularyEnd) != checksums.vocabulary) {
+                throw new IOException("Checksum mismatch in vocabulary");
+            }
+            if (crc(channel, vocabularyEnd, unkEnd) != checksums.unk) {
+                throw new IOException("Checksum mismatch in UNK vector");
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Storage formats for the vectors in a binary word vectors file.
+ */
+public enum VectorEncoding
+{
+    /**
+     * IEEE 754 single precision - lossless.
+     */
+    FLOAT32(0)
+    {
+        @Override
+        public int recordSize(int aVectorLength)
+        {
+            return aVectorLength * Float.BYTES;
+        }
+
+        @Override
+        public void encode(float[] aVector, ByteBuffer aTarget)
+        {
+            for (float v : aVector) {
+                aTarget.putFloat(v);
+            }
+        }
+
+        @Override
+        public void decode(ByteBuffer aSource, int aPosition, float[] aTarget, int aOffset,
+                int aLength)
+        {
+            for (int i = 0; i < aLength; i++) {
+                aTarget[aOffset + i] = aSource.getFloat(aPosition + i * Float.BYTES);
+            }
+        }
+    },
+
+    /**
+     * IEEE 754 half precision - about three significant decimal digits, half the size of
+     * {@link #FLOAT32}.
+     */
+    FLOAT16(1)
+    {
+        @Override
+        public int recordSize(int aVectorLength)
+        {
+            return aVectorLength * Short.BYTES;
+        }
+
+        @Override
+        public void encode(float[] aVector, ByteBuffer aTarget)
+        {
+            for (float v : aVector) {
+                aTarget.putShort(toHalf(v));
+            }
+        }
+
+        @Override
+        public void decode(ByteBuffer aSource, int aPosition, float[] aTarget, int aOffset,
+                int aLength)
+        {
+            for (int i = 0; i < aLength; i++) {
+                aTarget[aOffset + i] = fromHalf(aSource.getShort(aPosition + i * Short.BYTES));
+            }
+        }
+    },
+
+    /**
+     * Signed 8 bit integers scaled per vector such that the component with the largest absolute
+     * value maps to 127. Each vector is preceded by its scale. A quarter the size of
+     * {@link #FLOAT32} (plus four bytes per vector).
+     */
+    INT8(2)
+    {
+        @Override
+        public int recordSize(int aVectorLength)
+        {
+            return Float.BYTES + aVectorLength;
+        }
+
+        @Override
+        public void encode(float[] aVector, ByteBuffer aTarget)
+        {
+            float max = 0.0f;
+            for (float v : aVector) {
+                max = Math.max(max, Math.abs(v));
+            }
+
+            float scale = max / Byte.MAX_VALUE;
+            aTarget.putFloat(scale);
+            for (float v : aVector) {
+                aTarget.put(scale == 0.0f ? 0 : (byte) Math.round(v / scale));
+            }
+        }
+
+        @Override
+        public void decode(ByteBuffer aSource, int aPosition, float[] aTarget, int aOffset,
+                int aLength)
+        {
+            float scale = aSource.getFloat(aPosition);
+            int start = aPosition + Float.BYTES;
+            for (int i = 0; i < aLength; i++) {
+                aTarget[aOffset + i] = aSource.get(start + i) * scale;
+            }
+        }
+    };
+
+    private final int id;
+
+    private VectorEncoding(int aId)
+    {
+        id = aId;
+    }
+
+    /**
+     * @return the identifier of the encoding in the file header.
+     */
+    public int getId()
+    {
+        return id;
+    }
+
+    /**
+     * @return the number of bytes a vector of the given length occupies in the file.
+     */
+    public abstract int recordSize(int aVectorLength);
+
+    /**
+     * Encode a vector at the current position of the target buffer. Afterwards, the position is
+     * located behind the encoded vector.
+     */
+    public abstract void encode(float[] aVector, ByteBuffer aTarget);
+
+    /**
+     * Decode a vector starting at the given absolute position of the source buffer. The position
+     * of the buffer is neither used nor changed, so a buffer can be shared between threads.
+     */
+    public abstract void decode(ByteBuffer aSource, int aPosition, float[] aTarget, int aOffset,
+            int aLength);
+
+    public static VectorEncoding forId(int aId)
+    {
+        for (VectorEncoding encoding : values()) {
+            if (encoding.id == aId) {
+                return encoding;
+            }
+        }
+        throw new IllegalArgumentException("Unknown vector encoding [" + aId + "]");
+    }
+
+    /**
+     * Convert to half precision rounding to the nearest value (ties to even).
+     */
+    static short toHalf(float aValue)
+    {
+        int bits = Float.floatToRawIntBits(aValue);
+        short sign = (short) ((bits & 0x8000_0000) >>> 16);
+
+        if (Float.isNaN(aValue)) {
+            // Keep the most significant bits of the payload and make sure it stays a NaN
+            return (short) (sign | 0x7e00 | ((bits & 0x007f_e000) >>> 13));
+        }
+
+        float abs = Math.abs(aValue);
+        // Everything from the midpoint between the largest half (65504) and 65536 upwards
+        // overflows to infinity
+        if (abs >= 0x1.ffep15f) {
+            return (short) (sign | 0x7c00);
+        }
+        // Everything up to half the smallest subnormal half underflows to zero
+        if (abs <= 0x1.0p-25f) {
+            return sign;
+        }
+
+        int exp = Math.getExponent(aValue);
+        int shift = 13;
+        int significand = bits & 0x007f_ffff;
+        if (exp < -14) {
+            // Subnormal half - make the implicit leading bit explicit and shift it into place
+            shift += -14 - exp;
+            exp = -15;
+            significand |= 0x0080_0000;
+        }
+
+        int half = significand >>> shift;
+        int lsb = significand & (1 << shift);
+        int round = significand & (1 << (shift - 1));
+        int sticky = significand & ((1 << (shift - 1)) - 1);
+        if (round != 0 && (lsb | sticky) != 0) {
+            // Carries into the exponent are fine - that is how rounding up to the next binade
+            // works in this representation
+            half++;
+        }
+
+        return (short) (sign | (((exp + 15) << 10) + half));
+    }
+
+    /**
+     * Convert from half precision. This is exact.
+     */
+    static float fromHalf(short aValue)
+    {
+        int sign = (aValue & 0x8000) << 16;
+        int exp = (aValue & 0x7c00) >>> 10;
+        int significand = aValue & 0x03ff;
+
+        if (exp == 0) {
+            // Zero or subnormal
+            float abs = 0x1.0p-24f * significand;
+            return sign != 0 ? -abs : abs;
+        }
+
+        if (exp == 0x1f) {
+            // Infinity or NaN
+            return Float.intBitsToFloat(sign | 0x7f80_0000 | (significand << 13));
+        }
+
+        return Float.intBitsToFloat(sign | ((exp - 15 + 127) << 23) | (significand << 13));
+    }
+}
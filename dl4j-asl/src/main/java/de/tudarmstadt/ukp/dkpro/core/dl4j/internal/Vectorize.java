@@ -17,19 +17,17 @@
  */
 package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
 
-import static org.nd4j.linalg.indexing.NDArrayIndex.all;
-import static org.nd4j.linalg.indexing.NDArrayIndex.point;
-
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.nd4j.linalg.api.buffer.DataBuffer;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.DataSet;
 import org.nd4j.linalg.factory.Nd4j;
-import org.nd4j.linalg.indexing.INDArrayIndex;
 
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.feature.CompositeFeature;
 import de.tudarmstadt.ukp.dkpro.core.dl4j.feature.EmbeddingsFeature;
 import de.tudarmstadt.ukp.dkpro.core.dl4j.feature.Feature;
 import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.BinaryVectorizer;
@@ -62,17 +60,25 @@ public class Vectorize
         }
     }
     
-    public DataSet vectorize(List<List<Token>> sentences, BinaryVectorizer wordVectors,
+    public DataSet vectorize(List<List<Token>> sentences, WordEmbeddings wordVectors,
             int truncateLength, int maxTagsetSize, boolean includeLabels)
                 throws IOException
     {
-        // Feature extractors
-        List<Feature> featureGenerators = new ArrayList<>();
-        featureGenerators.add(new EmbeddingsFeature(wordVectors));
-        // featureGenerators.add(new ShapeFeature());
-     
+        return vectorize(sentences, new EmbeddingsFeature(wordVectors), truncateLength,
+                maxTagsetSize, includeLabels);
+    }
+    
+    /**
+     * Vectorize sentences using arbitrary features, e.g. a {@link CompositeFeature} combining
+     * embeddings with shape and affix features. The features of each sentence are written
+     * straight into the features tensor.
+     */
+    public DataSet vectorize(List<List<Token>> sentences, Feature aFeature, int truncateLength,
+            int maxTagsetSize, boolean includeLabels)
+                throws IOException
+    {
         // Get size of feature vector
-        int featureVectorSize = featureGenerators.stream().mapToInt(f -> f.size()).sum();
+        int featureVectorSize = aFeature.size();
         
         // If longest sentence exceeds 'truncateLength': only take the first 'truncateLength' words
         int maxSentLength = sentences.stream().mapToInt(tokens -> tokens.size()).max().getAsInt();
@@ -83,41 +89,147 @@ public class Vectorize
         // Create data for training
         // Here: we have sentences.size() examples of varying lengths
         INDArray features = Nd4j.create(sentences.size(), featureVectorSize, maxSentLength);
-        // Tags are using a 1-hot encoding
-        INDArray labels = Nd4j.create(sentences.size(), maxTagsetSize, maxSentLength);
-
-        // Sentences have variable length, so we we need to mask positions not used in short
-        // sentences.
-        INDArray featuresMask = Nd4j.zeros(sentences.size(), maxSentLength);
-        INDArray labelsMask = Nd4j.zeros(sentences.size(), maxSentLength);
+        
+        // Tags are using a 1-hot encoding. Labels and masks are assembled in row-major order in
+        // plain arrays and copied into tensors at once. Sentences have variable length, so we
+        // need to mask positions not used in short sentences.
+        float[] labelsData = new float[sentences.size() * maxTagsetSize * maxSentLength];
+        float[] maskData = new float[sentences.size() * maxSentLength];
 
+        // Features are written straight into the buffer backing the features tensor
+        DataBuffer featuresData = features.data();
+        long[] featuresStride = features.stride();
+        
         // Iterate over all sentences
+        List<String> words = new ArrayList<>(maxSentLength);
         for (int s = 0; s < sentences.size(); s++) {
-            // Get word vectors for each word in review, and put them in the training data
             List<Token> tokens = sentences.get(s);
-            for (int t = 0; t < Math.min(tokens.size(), maxSentLength); t++) {
-                // Look up embedding
+            int length = Math.min(tokens.size(), maxSentLength);
+            
+            // Extract the features of the whole sentence at once
+            words.clear();
+            for (int t = 0; t < length; t++) {
+                words.add(tokens.get(t).getCoveredText());
+            }
+            aFeature.applyInto(words, featuresData, features.offset() + s * featuresStride[0],
+                    featuresStride[2], featuresStride[1]);
+            
+            for (int t = 0; t < length; t++) {
                 Token token = tokens.get(t);
-                INDArray embedding = Nd4j.create(wordVectors.vectorize(token.getCoveredText()));
-                features.put(new INDArrayIndex[]{ point(s), all(), point(t) }, embedding);
                 
-                // Word is present (not padding) -> 1.0 in features mask
-                featuresMask.putScalar(new int[] { s, t }, 1.0);
+                // Word is present (not padding) -> 1.0 in mask
+                maskData[s * maxSentLength + t] = 1.0f;
 
+                // When tagging, the tokens have no POS yet which must not end up in the tagset
+                if (!includeLabels) {
+                    continue;
+                }
+                
                 // Grow tagset if necessary
                 if (!tagset.containsKey(token.getPosValue())) {
                     tagset.put(token.getPosValue(), tagset.size());
                 }
                 
                 // Add POS label 
-                labels.putScalar(s, tagset.getInt(token.getPosValue()), t, 1.0);
-                labelsMask.putScalar(new int[] { s, t }, 1.0);
+                int tag = checkTag(tagset.getInt(token.getPosValue()), maxTagsetSize);
+                labelsData[(s * maxTagsetSize + tag) * maxSentLength + t] = 1.0f;
             }
         }
 
+        int[] maskShape = { sentences.size(), maxSentLength };
+        INDArray labels = Nd4j.create(labelsData,
+                new int[] { sentences.size(), maxTagsetSize, maxSentLength }, 'c');
+        INDArray featuresMask = Nd4j.create(maskData, maskShape, 'c');
+        INDArray labelsMask = Nd4j.create(maskData, maskShape, 'c');
+
         return new DataSet(features, labels, featuresMask, labelsMask);
     }
     
+    /**
+     * Encode a tagged sentence for training as vocabulary and tag indexes. The tagset grows as
+     * needed, but not beyond {@code maxTagsetSize} tags. Sentences longer than
+     * {@code truncateLength} are truncated.
+     */
+    public EncodedSentence encode(List<Token> tokens, WordEmbeddings wordVectors,
+            int truncateLength, int maxTagsetSize)
+    {
+        int length = Math.min(tokens.size(), truncateLength);
+        int[] words = new int[length];
+        int[] tags = new int[length];
+        for (int t = 0; t < length; t++) {
+            Token token = tokens.get(t);
+            words[t] = wordVectors.indexOf(token.getCoveredText());
+            
+            // Grow tagset if necessary
+            if (!tagset.containsKey(token.getPosValue())) {
+                tagset.put(token.getPosValue(), tagset.size());
+            }
+            tags[t] = checkTag(tagset.getInt(token.getPosValue()), maxTagsetSize);
+        }
+        return new EncodedSentence(words, tags);
+    }
+    
+    /**
+     * Assemble the dense features and labels for a mini-batch of encoded sentences. Features,
+     * labels and masks are assembled in row-major order in plain arrays and each is copied into
+     * its tensor at once, avoiding per-element calls into ND4J.
+     */
+    public static DataSet vectorize(List<EncodedSentence> sentences, BinaryVectorizer wordVectors,
+            int maxTagsetSize)
+    {
+        int count = sentences.size();
+        int featureVectorSize = wordVectors.getVectorSize();
+        int maxSentLength = sentences.stream().mapToInt(EncodedSentence::length).max()
+                .getAsInt();
+        
+        // [sentences, features, positions] - the components of a vector are maxSentLength apart
+        float[] featuresData = new float[count * featureVectorSize * maxSentLength];
+        float[] labelsData = new float[count * maxTagsetSize * maxSentLength];
+        float[] maskData = new float[count * maxSentLength];
+        float[] vector = new float[featureVectorSize];
+        
+        for (int s = 0; s < count; s++) {
+            EncodedSentence sentence = sentences.get(s);
+            int[] words = sentence.getWords();
+            int[] tags = sentence.getTags();
+            for (int t = 0; t < sentence.length(); t++) {
+                wordVectors.vectorizeInto(words[t], vector, 0);
+                int offset = s * featureVectorSize * maxSentLength + t;
+                for (int i = 0; i < featureVectorSize; i++) {
+                    featuresData[offset + i * maxSentLength] = vector[i];
+                }
+                
+                int tag = checkTag(tags[t], maxTagsetSize);
+                labelsData[(s * maxTagsetSize + tag) * maxSentLength + t] = 1.0f;
+                maskData[s * maxSentLength + t] = 1.0f;
+            }
+        }
+        
+        int[] maskShape = { count, maxSentLength };
+        INDArray features = Nd4j.create(featuresData,
+                new int[] { count, featureVectorSize, maxSentLength }, 'c');
+        INDArray labels = Nd4j.create(labelsData,
+                new int[] { count, maxTagsetSize, maxSentLength }, 'c');
+        INDArray featuresMask = Nd4j.create(maskData, maskShape, 'c');
+        INDArray labelsMask = Nd4j.create(maskData, maskShape, 'c');
+        
+        return new DataSet(features, labels, featuresMask, labelsMask);
+    }
+    
+    /**
+     * The labels have one component per tag, so a tag beyond the maximum tagset size would be
+     * written into the labels of the next position or sentence.
+     */
+    private static int checkTag(int aTag, int aMaxTagsetSize)
+    {
+        if (aTag >= aMaxTagsetSize) {
+            throw new IllegalStateException("Tag index [" + aTag
+                    + "] exceeds the maximum tagset size [maxTagsetSize=" + aMaxTagsetSize
+                    + "] - increase maxTagsetSize and the size of the output layer");
+        }
+        return aTag;
+    }
+    
     public String[] getTagset()
     {
         return tagset.keySet().toArray(new String[tagset.size()]);
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+/**
+ * The words of a binary word vectors file. The position of a word in the vocabulary is also the
+ * position of its vector in the file.
+ */
+public interface Vocabulary
+{
+    /**
+     * @return the number of words in the vocabulary.
+     */
+    int size();
+
+    /**
+     * @return the word at the given position.
+     */
+    String get(int aIndex);
+
+    /**
+     * @return the position of the given word or {@code -1} if the word is not in the vocabulary.
+     */
+    int indexOf(String aWord);
+
+    /**
+     * @return whether the word at the given position is equal to the given word.
+     */
+    boolean matches(int aIndex, String aWord);
+}
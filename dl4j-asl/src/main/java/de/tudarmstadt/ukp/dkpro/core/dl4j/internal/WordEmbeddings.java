@@ -0,0 +1,44 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import org.nd4j.linalg.api.buffer.DataBuffer;
+
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.BinaryVectorizer;
+
+/**
+ * Word embeddings as needed for creating features: look up words and copy their vectors into
+ * tensors. Implemented by {@link BinaryVectorizer} itself and by the {@link WordVectorCache}
+ * which can be put in front of it.
+ */
+public interface WordEmbeddings
+{
+    int getVectorSize();
+    
+    /**
+     * @return the position of the word in the vocabulary or {@code -1} if the word is unknown.
+     */
+    int indexOf(String aWord);
+    
+    /**
+     * Write the vector of the given word into an ND4J buffer. The components of the vector are
+     * written at {@code aOffset}, {@code aOffset + aStride}, {@code aOffset + 2 * aStride}, etc.
+     * Unknown words receive the UNK vector.
+     */
+    void vectorizeInto(String aWord, DataBuffer aDest, long aOffset, long aStride);
+}
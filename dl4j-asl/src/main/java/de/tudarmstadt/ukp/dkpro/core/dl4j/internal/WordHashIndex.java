@@ -0,0 +1,201 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Open-addressing hash index mapping words to their position in the sorted vocabulary of a binary
+ * word vectors file.
+ * <p>
+ * Each slot consists of two integers: the hash of the word and the position of the word in the
+ * vocabulary plus one (zero marks an empty slot). The table is kept at most half full, so a lookup
+ * usually needs a single probe. Since the hash is stored alongside the position, the word itself
+ * is compared only when the hashes match - typically exactly once for a known word.
+ * <p>
+ * The hash is derived from {@link String#hashCode()}, which is fully specified by the Java
+ * language, so an index built during conversion can safely be stored in the file and used in any
+ * other JVM.
+ */
+public class WordHashIndex
+{
+    /**
+     * Marks the start of an index section in a binary word vectors file.
+     */
+    public static final String MAGIC = "dl4jidx";
+    
+    private static final int SLOT_SIZE = 2;
+
+    private final IntBuffer slots;
+    private final int mask;
+    private final int size;
+
+    private WordHashIndex(IntBuffer aSlots, int aSize)
+    {
+        slots = aSlots;
+        mask = (aSlots.capacity() / SLOT_SIZE) - 1;
+        size = aSize;
+    }
+
+    /**
+     * Build an index for the given vocabulary. The position of each word in the array is what
+     * a lookup returns.
+     */
+    public static WordHashIndex build(String[] aWords)
+    {
+        int capacity = capacityFor(aWords.length);
+        int mask = capacity - 1;
+        int[] slots = new int[capacity * SLOT_SIZE];
+        for (int i = 0; i < aWords.length; i++) {
+            int hash = hash(aWords[i]);
+            int slot = hash & mask;
+            while (slots[slot * SLOT_SIZE + 1] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot * SLOT_SIZE] = hash;
+            slots[slot * SLOT_SIZE + 1] = i + 1;
+        }
+        return new WordHashIndex(IntBuffer.wrap(slots), aWords.length);
+    }
+
+    /**
+     * Memory-map an index which has previously been written using {@link #write(DataOutput)}. The
+     * file pointer must be located at the start of the index. The index is not copied to the heap.
+     * 
+     * @param aWordCount
+     *            the number of words in the vocabulary the index was built from.
+     * @throws IOException
+     *             if the index is too small for the given number of words or extends beyond the
+     *             end of the file.
+     */
+    public static WordHashIndex map(RandomAccessFile aFile, int aWordCount)
+        throws IOException
+    {
+        int capacity = aFile.readInt();
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IOException(
+                    "Index capacity must be a power of two but was [" + capacity + "]");
+        }
+        
+        // A smaller index cannot have been built for this vocabulary and might not contain the
+        // empty slot which terminates an unsuccessful lookup
+        if (capacity < capacityFor(aWordCount)) {
+            throw new IOException("Index capacity [" + capacity + "] is too small for ["
+                    + aWordCount + "] words");
+        }
+        
+        long length = (long) capacity * SLOT_SIZE * Integer.BYTES;
+        if (aFile.getFilePointer() + length > aFile.length()) {
+            throw new IOException("Index extends beyond the end of the file");
+        }
+        
+        IntBuffer slots = aFile.getChannel()
+                .map(FileChannel.MapMode.READ_ONLY, aFile.getFilePointer(), length)
+                .asIntBuffer();
+        aFile.seek(aFile.getFilePointer() + length);
+        return new WordHashIndex(slots, aWordCount);
+    }
+
+    /**
+     * @return the number of slots required to index the given number of words.
+     */
+    public static int capacityFor(int aWordCount)
+    {
+        // Keep the load factor at or below 0.5
+        int capacity = Integer.highestOneBit(Math.max(aWordCount, 1)) << 1;
+        if (capacity < aWordCount * 2L) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * @return the size of an index for the given number of words when written to a file.
+     */
+    public static long sizeInBytes(int aWordCount)
+    {
+        return Integer.BYTES + (long) capacityFor(aWordCount) * SLOT_SIZE * Integer.BYTES;
+    }
+
+    /**
+     * @return the number of slots in this index.
+     */
+    public int getCapacity()
+    {
+        return mask + 1;
+    }
+
+    /**
+     * Look up the position of a word in the vocabulary.
+     *
+     * @param aWord
+     *            the word to look up.
+     * @param aVocabulary
+     *            the vocabulary from which the index was built.
+     * @return the position of the word in the vocabulary or {@code -1} if the word is unknown.
+     * @throws IllegalStateException
+     *             if the index is damaged.
+     */
+    public int lookup(String aWord, Vocabulary aVocabulary)
+    {
+        int hash = hash(aWord);
+        int slot = hash & mask;
+        // An intact index always has an empty slot, so probing the whole table means it is not
+        for (int probe = 0; probe <= mask; probe++) {
+            int idx = slots.get(slot * SLOT_SIZE + 1) - 1;
+            if (idx < 0) {
+                return -1;
+            }
+            if (idx >= size) {
+                throw new IllegalStateException("Damaged word index: position [" + idx
+                        + "] exceeds the vocabulary size [" + size + "]");
+            }
+            if (slots.get(slot * SLOT_SIZE) == hash && aVocabulary.matches(idx, aWord)) {
+                return idx;
+            }
+            slot = (slot + 1) & mask;
+        }
+        throw new IllegalStateException("Damaged word index: no empty slot");
+    }
+
+    public void write(DataOutput aOutput)
+        throws IOException
+    {
+        aOutput.writeInt(getCapacity());
+        for (int i = 0; i < slots.capacity(); i++) {
+            aOutput.writeInt(slots.get(i));
+        }
+    }
+
+    static int hash(String aWord)
+    {
+        // Spread the bits of the String hash code (MurmurHash3 finalizer) - String.hashCode()
+        // alone clusters badly for short words which share a prefix.
+        int h = aWord.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import java.util.Random;
+import java.util.function.IntFunction;
+
+import org.nd4j.linalg.api.buffer.DataBuffer;
+
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.BinaryVectorizer;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+/**
+ * Bounded cache of the decoded vectors of frequent words in front of a {@link BinaryVectorizer}.
+ * Word frequencies follow Zipf's law, so a few thousand entries serve most tokens without a
+ * vocabulary lookup or decoding the vector from the mapped file. Unknown words are cached as well.
+ * <p>
+ * Entries live in numbered slots. Which slot is reused when the cache is full is decided by a
+ * pluggable {@link EvictionPolicy}; {@link LruPolicy} and {@link LfuPolicy} are provided.
+ * <p>
+ * Unlike the vectorizer, the cache is <b>not</b> thread-safe. Every thread, e.g. every component
+ * instance, should have its own cache.
+ */
+public class WordVectorCache
+    implements WordEmbeddings
+{
+    // Rough heap overhead per entry besides the vector itself: key, array headers, map entry
+    private static final int ENTRY_OVERHEAD = 96;
+    
+    private final BinaryVectorizer vectors;
+    private final EvictionPolicy policy;
+    
+    private final Object2IntOpenHashMap<String> slots;
+    private final String[] words;
+    private final int[] indexes;
+    private final float[][] vectorData;
+    private int size;
+    
+    private long hits;
+    private long misses;
+    
+    /**
+     * @param aCapacity
+     *            the maximum number of cached words.
+     * @param aPolicy
+     *            creates the eviction policy for the given capacity, e.g. {@code LruPolicy::new}.
+     */
+    public WordVectorCache(BinaryVectorizer aVectors, int aCapacity,
+            IntFunction<EvictionPolicy> aPolicy)
+    {
+        if (aCapacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive but was " + aCapacity);
+        }
+        
+        vectors = aVectors;
+        policy = aPolicy.apply(aCapacity);
+        slots = new Object2IntOpenHashMap<>(aCapacity);
+        slots.defaultReturnValue(-1);
+        words = new String[aCapacity];
+        indexes = new int[aCapacity];
+        vectorData = new float[aCapacity][];
+    }
+    
+    /**
+     * @return the number of entries which fit into the given number of bytes of heap.
+     */
+    public static int capacityForBytes(BinaryVectorizer aVectors, long aBytes)
+    {
+        long entrySize = (long) aVectors.getVectorSize() * Float.BYTES + ENTRY_OVERHEAD;
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE - 8, aBytes / entrySize));
+    }
+    
+    @Override
+    public int getVectorSize()
+    {
+        return vectors.getVectorSize();
+    }
+    
+    @Override
+    public int indexOf(String aWord)
+    {
+        return indexes[slot(aWord)];
+    }
+    
+    @Override
+    public void vectorizeInto(String aWord, DataBuffer aDest, long aOffset, long aStride)
+    {
+        float[] vector = vectorData[slot(aWord)];
+        for (int i = 0; i < vector.length; i++) {
+            aDest.put(aOffset + i * aStride, vector[i]);
+        }
+    }
+    
+    /**
+     * Copy the vector of the given word into the destination array.
+     */
+    public void vectorizeInto(String aWord, float[] aDest, int aOffset)
+    {
+        float[] vector = vectorData[slot(aWord)];
+        System.arraycopy(vector, 0, aDest, aOffset, vector.length);
+    }
+    
+    /**
+     * @return the slot holding the given word, loading it into the cache if necessary.
+     */
+    private int slot(String aWord)
+    {
+        int slot = slots.getInt(aWord);
+        if (slot >= 0) {
+            hits++;
+            policy.hit(slot);
+            return slot;
+        }
+        
+        misses++;
+        if (size < words.length) {
+            slot = size;
+            size++;
+        }
+        else {
+            slot = policy.victim();
+            slots.removeInt(words[slot]);
+        }
+        
+        int index = vectors.indexOf(aWord);
+        float[] vector = vectorData[slot];
+        if (vector == null) {
+            vector = new float[vectors.getVectorSize()];
+            vectorData[slot] = vector;
+        }
+        vectors.vectorizeInto(index, vector, 0);
+        
+        words[slot] = aWord;
+        indexes[slot] = index;
+        slots.put(aWord, slot);
+        policy.insert(slot);
+        return slot;
+    }
+    
+    public int size()
+    {
+        return size;
+    }
+    
+    public long getHits()
+    {
+        return hits;
+    }
+    
+    public long getMisses()
+    {
+        return misses;
+    }
+    
+    /**
+     * @return the fraction of lookups served from the cache or {@code 0} if there were no lookups
+     *         yet.
+     */
+    public double getHitRate()
+    {
+        long total = hits + misses;
+        return total > 0 ? (double) hits / total : 0.0;
+    }
+    
+    /**
+     * Decides which entry to replace when the cache is full. Entries are identified by their slot
+     * number, which lies between {@code 0} (inclusive) and the capacity (exclusive).
+     */
+    public interface EvictionPolicy
+    {
+        /**
+         * The entry in the given slot was used.
+         */
+        void hit(int aSlot);
+        
+        /**
+         * A new entry was put into the given slot, possibly replacing the previous victim.
+         */
+        void insert(int aSlot);
+        
+        /**
+         * Choose the entry to replace. Only called when all slots are occupied.
+         */
+        int victim();
+    }
+    
+    /**
+     * Replaces the least recently used entry. The slots are kept in a doubly linked list ordered
+     * by last use.
+     */
+    public static class LruPolicy
+        implements EvictionPolicy
+    {
+        private final int[] prev;
+        private final int[] next;
+        private int head = -1;
+        private int tail = -1;
+        
+        public LruPolicy(int aCapacity)
+        {
+            prev = new int[aCapacity];
+            next = new int[aCapacity];
+        }
+        
+        @Override
+        public void hit(int aSlot)
+        {
+            if (aSlot != tail) {
+                unlink(aSlot);
+                append(aSlot);
+            }
+        }
+        
+        @Override
+        public void insert(int aSlot)
+        {
+            append(aSlot);
+        }
+        
+        @Override
+        public int victim()
+        {
+            int slot = head;
+            unlink(slot);
+            return slot;
+        }
+        
+        private void unlink(int aSlot)
+        {
+            if (prev[aSlot] >= 0) {
+                next[prev[aSlot]] = next[aSlot];
+            }
+            else {
+                head = next[aSlot];
+            }
+            if (next[aSlot] >= 0) {
+                prev[next[aSlot]] = prev[aSlot];
+            }
+            else {
+                tail = prev[aSlot];
+            }
+        }
+        
+        private void append(int aSlot)
+        {
+            prev[aSlot] = tail;
+            next[aSlot] = -1;
+            if (tail >= 0) {
+                next[tail] = aSlot;
+            }
+            else {
+                head = aSlot;
+            }
+            tail = aSlot;
+        }
+    }
+    
+    /**
+     * Replaces an infrequently used entry. To keep eviction cheap, the victim is the least used
+     * among a few randomly sampled entries rather than the globally least used one. Use counts are
+     * halved periodically so words which were frequent only in the past can be evicted eventually.
+     */
+    public static class LfuPolicy
+        implements EvictionPolicy
+    {
+        private static final int SAMPLES = 8;
+        
+        private final int[] counts;
+        private final Random random = new Random(12345L);
+        private final long agingPeriod;
+        private long accesses;
+        
+        public LfuPolicy(int aCapacity)
+        {
+            counts = new int[aCapacity];
+            agingPeriod = 10L * aCapacity;
+        }
+        
+        @Override
+        public void hit(int aSlot)
+        {
+            if (counts[aSlot] < Integer.MAX_VALUE) {
+                counts[aSlot]++;
+            }
+            age();
+        }
+        
+        @Override
+        public void insert(int aSlot)
+        {
+            counts[aSlot] = 1;
+            age();
+        }
+        
+        @Override
+        public int victim()
+        {
+            int victim = random.nextInt(counts.length);
+            for (int i = 1; i < SAMPLES; i++) {
+                int candidate = random.nextInt(counts.length);
+                if (counts[candidate] < counts[victim]) {
+                    victim = candidate;
+                }
+            }
+            return victim;
+        }
+        
+        private void age()
+        {
+            accesses++;
+            if (accesses % agingPeriod == 0) {
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] >>>= 1;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+public class Dl4jPosTaggerTest
+{
+    @Test
+    public void testDecodeTags()
+    {
+        // Two sequences, three tags, four positions
+        int[][] best = { { 2, 0, 1, 1 }, { 1, 2, 0, 0 } };
+        INDArray predicted = Nd4j.zeros(2, 3, 4);
+        for (int s = 0; s < best.length; s++) {
+            for (int t = 0; t < best[s].length; t++) {
+                predicted.putScalar(new int[] { s, best[s][t], t }, 1.0);
+            }
+        }
+
+        // The second sequence is padded after two positions
+        int[][] tagIdxs = Dl4jPosTagger.decodeTags(predicted, new int[] { 4, 2 });
+        assertEquals(2, tagIdxs.length);
+        assertArrayEquals(best[0], tagIdxs[0]);
+        assertArrayEquals(new int[] { 1, 2 }, tagIdxs[1]);
+    }
+
+    @Test
+    public void testWindowStarts()
+    {
+        assertArrayEquals(new int[] { 0 }, Dl4jPosTagger.windowStarts(1, 150, 32));
+        assertArrayEquals(new int[] { 0 }, Dl4jPosTagger.windowStarts(150, 150, 32));
+        assertArrayEquals(new int[] { 0, 118 }, Dl4jPosTagger.windowStarts(151, 150, 32));
+        assertArrayEquals(new int[] { 0, 118 }, Dl4jPosTagger.windowStarts(268, 150, 32));
+        assertArrayEquals(new int[] { 0, 118, 236 }, Dl4jPosTagger.windowStarts(269, 150, 32));
+        assertArrayEquals(new int[] { 0, 150 }, Dl4jPosTagger.windowStarts(300, 150, 0));
+    }
+
+    @Test
+    public void testStitch()
+    {
+        for (int overlap : new int[] { 0, 1, 32, 149 }) {
+            for (int length : new int[] { 1, 150, 151, 300, 1000 }) {
+                int[] starts = Dl4jPosTagger.windowStarts(length, 150, overlap);
+                
+                // Every window predicts its own number for all positions
+                int[] tagIdxs = new int[length];
+                Arrays.fill(tagIdxs, -1);
+                for (int w = starts.length - 1; w >= 0; w--) {
+                    int[] windowTagIdxs = new int[Math.min(150, length - starts[w])];
+                    Arrays.fill(windowTagIdxs, w);
+                    Dl4jPosTagger.stitch(windowTagIdxs, starts[w], overlap, tagIdxs);
+                }
+                
+                // Each position comes from the window where it is farthest from the edge
+                for (int p = 0; p < length; p++) {
+                    int expected = 0;
+                    while (expected + 1 < starts.length
+                            && p >= starts[expected + 1] + overlap / 2) {
+                        expected++;
+                    }
+                    assertEquals("overlap " + overlap + " length " + length + " position " + p,
+                            expected, tagIdxs[p]);
+                }
+            }
+        }
+    }
+
+    @Ignore("Benchmark")
+    @Test
+    public void benchmarkDecodeTags()
+    {
+        // A sentence at the truncation limit using the default maximum tagset size
+        int length = 150;
+        INDArray predicted = Nd4j.rand(new int[] { 1, 70, length });
+        int[] lengths = { length };
+
+        for (int round = 0; round < 5; round++) {
+            int iterations = 200;
+            long checksum = 0;
+
+            // Previous approach: argmax over the whole sentence for every single token
+            long start = System.nanoTime();
+            for (int n = 0; n < iterations; n++) {
+                for (int i = 0; i < length; i++) {
+                    checksum += Nd4j.argMax(predicted, 1).getInt(i);
+                }
+            }
+            long perToken = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int n = 0; n < iterations; n++) {
+                for (int tagIdx : Dl4jPosTagger.decodeTags(predicted, lengths)[0]) {
+                    checksum -= tagIdx;
+                }
+            }
+            long perSentence = System.nanoTime() - start;
+
+            assertEquals(0, checksum);
+            System.out.printf("Round %d: per-token argmax %8.1f us/sentence, "
+                    + "per-sentence argmax %6.1f us/sentence%n", round,
+                    perToken / 1000.0 / iterations, perSentence / 1000.0 / iterations);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j;
+
+import static java.util.Arrays.asList;
+import static org.apache.uima.fit.factory.AnalysisEngineFactory.createEngine;
+import static org.apache.uima.fit.factory.AnalysisEngineFactory.createEngineDescription;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.uima.resource.ResourceInitializationException;
+import org.junit.Test;
+
+/**
+ * Checks that invalid parameters are rejected when the trainer is initialized, i.e. before the
+ * training corpus is read. Unlike {@link Dl4jPosTaggerTrainerTest}, these tests need neither
+ * datasets nor embeddings.
+ */
+public class Dl4jPosTaggerTrainerConfigurationTest
+{
+    @Test
+    public void testCheckpointFrequency()
+        throws Exception
+    {
+        assertRejected("Checkpoint frequency", Dl4jPosTaggerTrainer.PARAM_CHECKPOINT_FREQUENCY, 0);
+        assertRejected("Checkpoint frequency", Dl4jPosTaggerTrainer.PARAM_CHECKPOINT_FREQUENCY,
+                -1);
+    }
+
+    @Test
+    public void testPrefetching()
+        throws Exception
+    {
+        assertRejected("Number of prefetched batches",
+                Dl4jPosTaggerTrainer.PARAM_PREFETCH_BATCHES, -1);
+        assertRejected("Number of prefetch workers",
+                Dl4jPosTaggerTrainer.PARAM_PREFETCH_WORKERS, 0);
+    }
+
+    @Test
+    public void testTrainingWorkers()
+        throws Exception
+    {
+        assertRejected("Number of training workers",
+                Dl4jPosTaggerTrainer.PARAM_TRAINING_WORKERS, 0);
+    }
+
+    @Test
+    public void testAveragingFrequency()
+        throws Exception
+    {
+        assertRejected("Averaging frequency", Dl4jPosTaggerTrainer.PARAM_AVERAGING_FREQUENCY, 0);
+        assertRejected("Averaging frequency", Dl4jPosTaggerTrainer.PARAM_AVERAGING_FREQUENCY,
+                -3);
+    }
+
+    /**
+     * Create a trainer with the given parameters and expect its initialization to fail with an
+     * {@link IllegalArgumentException} whose message starts with the given text.
+     */
+    private static void assertRejected(String aMessage, Object... aParameters)
+        throws Exception
+    {
+        List<Object> parameters = new ArrayList<>(asList(
+                Dl4jPosTaggerTrainer.PARAM_NETWORK, "{}",
+                Dl4jPosTaggerTrainer.PARAM_TARGET_LOCATION, "target/model.bin",
+                Dl4jPosTaggerTrainer.PARAM_MAX_TAGSET_SIZE, 70));
+        parameters.addAll(asList(aParameters));
+        
+        try {
+            createEngine(createEngineDescription(Dl4jPosTaggerTrainer.class,
+                    parameters.toArray()));
+            fail("Parameters " + asList(aParameters) + " were accepted");
+        }
+        catch (ResourceInitializationException e) {
+            // UIMA may wrap the exception thrown by initialize() once more
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof IllegalArgumentException
+                        && cause.getMessage().startsWith(aMessage)) {
+                    return;
+                }
+            }
+            throw e;
+        }
+    }
+}
@@ -17,22 +17,34 @@
  */
 package de.tudarmstadt.ukp.dkpro.core.dl4j;
 
+import static java.util.Arrays.asList;
+import static org.apache.uima.fit.factory.AnalysisEngineFactory.createEngine;
 import static org.apache.uima.fit.factory.AnalysisEngineFactory.createEngineDescription;
+import static org.apache.uima.fit.factory.CollectionReaderFactory.createReader;
 import static org.apache.uima.fit.factory.CollectionReaderFactory.createReaderDescription;
 import static org.apache.uima.fit.pipeline.SimplePipeline.iteratePipeline;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 
+import org.apache.uima.analysis_engine.AnalysisEngine;
 import org.apache.uima.analysis_engine.AnalysisEngineDescription;
+import org.apache.uima.collection.CollectionReader;
 import org.apache.uima.collection.CollectionReaderDescription;
 import org.apache.uima.fit.factory.ConfigurationParameterFactory;
+import org.apache.uima.fit.factory.JCasFactory;
 import org.apache.uima.fit.pipeline.SimplePipeline;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.ResourceInitializationException;
 import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
 import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
 import org.deeplearning4j.nn.api.OptimizationAlgorithm;
@@ -42,6 +54,7 @@ import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
 import org.deeplearning4j.nn.conf.layers.LSTM;
 import org.deeplearning4j.nn.conf.layers.RnnOutputLayer;
 import org.deeplearning4j.nn.conf.layers.recurrent.Bidirectional;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
 import org.deeplearning4j.nn.weights.WeightInit;
 import org.junit.BeforeClass;
 import org.junit.Ignore;
@@ -57,6 +70,12 @@ import de.tudarmstadt.ukp.dkpro.core.api.datasets.Split;
 import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
 import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer;
 import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.BinaryVectorizer;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.CheckpointWriter;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.ModelArchive;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.ModelCache;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.StreamingVectorConverter;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.StreamingVectorConverter.Format;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.VectorEncoding;
 import de.tudarmstadt.ukp.dkpro.core.eval.EvalUtil;
 import de.tudarmstadt.ukp.dkpro.core.eval.model.Span;
 import de.tudarmstadt.ukp.dkpro.core.eval.report.Result;
@@ -68,6 +87,8 @@ import de.tudarmstadt.ukp.dkpro.core.testing.DkproTestContext;
 public class Dl4jPosTaggerTrainerTest
 {
     private static final String DIM = "50";
+    private static final String EMBEDDINGS = "target/glove.6B." + DIM + "d.dl4jw2v";
+    private static final int MAX_TAGSET_SIZE = 70;
     
     private static Dataset ds;
 
@@ -81,7 +102,9 @@ public class Dl4jPosTaggerTrainerTest
         int maxTagsetSize = 70;
         int batchSize = 25;
         int epochs = 2;
-        boolean shuffle = true;
+        // The expected scores were measured with batches in corpus order and without batched
+        // tagging, so both are pinned here
+        boolean shuffle = false;
         double learningRate = 0.1;
         
         MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder()
@@ -105,7 +128,8 @@ public class Dl4jPosTaggerTrainerTest
                             .build())
                 .build();
         
-        Result results = test(conf.toJson(), embeddings, maxTagsetSize, epochs, batchSize, shuffle);
+        Result results = test(conf.toJson(), embeddings, maxTagsetSize, epochs, batchSize, shuffle,
+                1);
         
         // DIM = 50
         assertEquals(0.413291, results.getFscore(), 0.0001);
@@ -125,13 +149,290 @@ public class Dl4jPosTaggerTrainerTest
         String embeddings = "target/glove.6B." + DIM + "d.dl4jw2v";
         
         int featuresSize = getEmbeddingsSize(embeddings);
+        int maxTagsetSize = 70;
+        int batchSize = 25;
+        int epochs = 2;
+        // The expected scores were measured with batches in corpus order and without batched
+        // tagging, so both are pinned here
+        boolean shuffle = false;
+        
+        MultiLayerConfiguration conf = bidirectionalLstm(featuresSize, maxTagsetSize);
+        
+        Result results = test(conf.toJson(), embeddings, maxTagsetSize, epochs, batchSize, shuffle,
+                1);
+
+        // DIM = 50
+        assertEquals(0.742591, results.getFscore(), 0.0001);
+        assertEquals(0.734754, results.getPrecision(), 0.0001);
+        assertEquals(0.750596, results.getRecall(), 0.0001);
+
+        // DIM = 100
+        // assertEquals(0.742591, results.getFscore(), 0.0001);
+        // assertEquals(0.734754, results.getPrecision(), 0.0001);
+        // assertEquals(0.750596, results.getRecall(), 0.0001);
+    }
+    
+    /**
+     * Compares tagging accuracy and throughput for the different storage formats of the
+     * embeddings.
+     */
+    @Test
+    public void testVectorEncodings()
+            throws Exception
+    {
         int maxTagsetSize = 70;
         int batchSize = 25;
         int epochs = 2;
         boolean shuffle = true;
+        
+        StringBuilder report = new StringBuilder();
+        for (VectorEncoding encoding : VectorEncoding.values()) {
+            String embeddings = convertGloveVectors(encoding);
+            
+            MultiLayerConfiguration conf = bidirectionalLstm(getEmbeddingsSize(embeddings),
+                    maxTagsetSize);
+            
+            long start = System.currentTimeMillis();
+            Result results = test(conf.toJson(), embeddings, maxTagsetSize, epochs, batchSize,
+                    shuffle, batchSize);
+            long duration = System.currentTimeMillis() - start;
+            
+            report.append(String.format("%-8s  size: %6d kB  F1: %.6f  train+tag: %6d ms%n",
+                    encoding, new File(embeddings).length() / 1024, results.getFscore(),
+                    duration));
+        }
+        
+        System.out.print(report);
+    }
+    
+    /**
+     * Measures the training speedup of data-parallel training over training a single replica.
+     */
+    @Test
+    public void testTrainingWorkers()
+            throws Exception
+    {
+        String network = defaultNetwork();
+        Split split = ds.getSplit(0.8);
+        
+        int cores = Runtime.getRuntime().availableProcessors();
+        StringBuilder report = new StringBuilder();
+        long baseline = 0;
+        for (int workers = 1; workers <= cores; workers *= 2) {
+            long start = System.currentTimeMillis();
+            train(split, network, EMBEDDINGS, MAX_TAGSET_SIZE,
+                    Dl4jPosTaggerTrainer.PARAM_TRAINING_WORKERS, workers);
+            long duration = System.currentTimeMillis() - start;
+            if (workers == 1) {
+                baseline = duration;
+            }
+            
+            report.append(String.format("workers: %2d  train: %6d ms  speedup: %.2f%n",
+                    workers, duration, (double) baseline / duration));
+        }
+        
+        System.out.print(report);
+    }
+    
+    @Test
+    public void testCheckpointResume()
+            throws Exception
+    {
+        String network = defaultNetwork();
+        Split split = ds.getSplit(0.8);
+        File checkpoint = new File(testContext.getTestOutputFolder(), "checkpoint.zip");
+        
+        // Train a single epoch
+        train(split, network, EMBEDDINGS, MAX_TAGSET_SIZE,
+                Dl4jPosTaggerTrainer.PARAM_EPOCHS, 1,
+                Dl4jPosTaggerTrainer.PARAM_CHECKPOINT_LOCATION, checkpoint,
+                Dl4jPosTaggerTrainer.PARAM_RESUME, true);
+        ModelArchive first = ModelArchive.read(checkpoint, true);
+        assertEquals("1", first.getState().getProperty(CheckpointWriter.PROP_EPOCH));
+        int iterationsPerEpoch = Integer.parseInt(
+                first.getState().getProperty(CheckpointWriter.PROP_ITERATION));
+        
+        // Replace the parameters in the checkpoint by ones which training from scratch would
+        // never produce
+        MultiLayerNetwork marked = first.getNetwork();
+        marked.params().assign(0.01);
+        try (CheckpointWriter writer = new CheckpointWriter(checkpoint)) {
+            writer.write(marked, first.getTagset(), 1);
+        }
+        
+        // Nothing is left to train, so resuming must yield exactly the checkpointed network
+        File model = train(split, network, EMBEDDINGS, MAX_TAGSET_SIZE,
+                Dl4jPosTaggerTrainer.PARAM_EPOCHS, 1,
+                Dl4jPosTaggerTrainer.PARAM_CHECKPOINT_LOCATION, checkpoint,
+                Dl4jPosTaggerTrainer.PARAM_RESUME, true);
+        assertEquals(marked.params(), ModelArchive.read(model, false).getNetwork().params());
+        
+        // Pretend that the run was interrupted and continue with the second epoch only
+        train(split, network, EMBEDDINGS, MAX_TAGSET_SIZE,
+                Dl4jPosTaggerTrainer.PARAM_EPOCHS, 2,
+                Dl4jPosTaggerTrainer.PARAM_CHECKPOINT_LOCATION, checkpoint,
+                Dl4jPosTaggerTrainer.PARAM_RESUME, true);
+        ModelArchive second = ModelArchive.read(checkpoint, true);
+        assertEquals("2", second.getState().getProperty(CheckpointWriter.PROP_EPOCH));
+        assertEquals(2 * iterationsPerEpoch, Integer.parseInt(
+                second.getState().getProperty(CheckpointWriter.PROP_ITERATION)));
+        assertNotEquals(marked.params(), second.getNetwork().params());
+    }
+    
+    @Test
+    public void testEarlyStopping()
+            throws Exception
+    {
+        Split split = ds.getSplit(0.8);
+        
+        File checkpoint = new File(testContext.getTestOutputFolder(), "checkpoint.zip");
+        
+        // Far more epochs than needed - the held-out accuracy decides when to stop
+        File model = train(split, defaultNetwork(), EMBEDDINGS, MAX_TAGSET_SIZE,
+                Dl4jPosTaggerTrainer.PARAM_EPOCHS, 50,
+                Dl4jPosTaggerTrainer.PARAM_HELD_OUT_FRACTION, 0.1,
+                Dl4jPosTaggerTrainer.PARAM_PATIENCE, 2,
+                Dl4jPosTaggerTrainer.PARAM_CHECKPOINT_LOCATION, checkpoint,
+                Dl4jPosTaggerTrainer.PARAM_CHECKPOINT_FREQUENCY, 1);
+        
+        // The checkpoint is written after every epoch, so it holds the last epoch trained
+        ModelArchive last = ModelArchive.read(checkpoint, false);
+        int lastEpoch = Integer.parseInt(last.getState().getProperty(CheckpointWriter.PROP_EPOCH));
+        assertTrue("Training did not stop early", lastEpoch < 50);
+        
+        // Training stops after two epochs without improvement, so the best epoch is the one
+        // before those and its network - not the last one - must have been written
+        ModelArchive best = ModelArchive.read(model, false);
+        assertEquals(String.valueOf(lastEpoch - 2),
+                best.getState().getProperty(CheckpointWriter.PROP_EPOCH));
+        assertNotEquals(last.getNetwork().params(), best.getNetwork().params());
+    }
+    
+    /**
+     * Measures the time from creating a tagger until the first document is tagged. Only the
+     * first instance has to read the model; the others take it from the {@link ModelCache}.
+     */
+    @Test
+    public void testTimeToFirstAnnotation()
+            throws Exception
+    {
+        Split split = ds.getSplit(0.8);
+        
+        File model = train(split, defaultNetwork(), EMBEDDINGS, MAX_TAGSET_SIZE);
+        
+        AnalysisEngineDescription tagger = createEngineDescription(
+                Dl4jPosTagger.class,
+                Dl4jPosTagger.PARAM_MODEL_LOCATION, model,
+                Dl4jPosTagger.PARAM_EMBEDDINGS_LOCATION, EMBEDDINGS);
+        
+        StringBuilder report = new StringBuilder();
+        List<AnalysisEngine> instances = new ArrayList<>();
+        try {
+            for (int i = 0; i < 4; i++) {
+                CollectionReader reader = createReader(createReaderDescription(
+                        Conll2006Reader.class,
+                        Conll2006Reader.PARAM_PATTERNS, split.getTestFiles(),
+                        Conll2006Reader.PARAM_READ_POS, false,
+                        Conll2006Reader.PARAM_LANGUAGE, ds.getLanguage()));
+                JCas jcas = JCasFactory.createJCas();
+                reader.getNext(jcas.getCas());
+                reader.destroy();
+                
+                long start = System.currentTimeMillis();
+                AnalysisEngine engine = createEngine(tagger);
+                engine.process(jcas);
+                long duration = System.currentTimeMillis() - start;
+                
+                // Keep the instance alive so the next one can share its model
+                instances.add(engine);
+                assertEquals(instances.size(), ModelCache.getReferenceCount(model));
+                
+                report.append(String.format("instance: %d  first annotation: %6d ms%n", i,
+                        duration));
+            }
+        }
+        finally {
+            instances.forEach(AnalysisEngine::destroy);
+        }
+        
+        assertEquals(0, ModelCache.getReferenceCount(model));
+        System.out.print(report);
+    }
+    
+    /**
+     * A tagger which fails to initialize must not keep its model in the {@link ModelCache}.
+     */
+    @Test
+    public void testModelReleasedOnFailedInitialization()
+            throws Exception
+    {
+        Split split = ds.getSplit(0.8);
+        
+        File model = train(split, defaultNetwork(), EMBEDDINGS, MAX_TAGSET_SIZE);
+        
+        try {
+            createEngine(createEngineDescription(Dl4jPosTagger.class,
+                    Dl4jPosTagger.PARAM_MODEL_LOCATION, model,
+                    Dl4jPosTagger.PARAM_EMBEDDINGS_LOCATION, "target/missing.bin"));
+            fail("Initialization should have failed");
+        }
+        catch (ResourceInitializationException e) {
+            // Expected
+        }
+        
+        assertEquals(0, ModelCache.getReferenceCount(model));
+    }
+    
+    /**
+     * Compares tagging with the full embeddings to tagging with a bundle containing only the words
+     * seen in the test data.
+     */
+    @Test
+    public void testBundle()
+            throws Exception
+    {
+        Split split = ds.getSplit(0.8);
+        File bundle = new File(testContext.getTestOutputFolder(), "bundle.bin");
+        
+        File model = train(split, defaultNetwork(), EMBEDDINGS, MAX_TAGSET_SIZE);
+        
+        CollectionReaderDescription testReader = createReaderDescription(
+                Conll2006Reader.class,
+                Conll2006Reader.PARAM_PATTERNS, split.getTestFiles(),
+                Conll2006Reader.PARAM_READ_POS, false,
+                Conll2006Reader.PARAM_LANGUAGE, ds.getLanguage());
+        
+        AnalysisEngineDescription bundler = createEngineDescription(
+                Dl4jPosTaggerBundler.class,
+                Dl4jPosTaggerBundler.PARAM_MODEL_LOCATION, model,
+                Dl4jPosTaggerBundler.PARAM_EMBEDDINGS_LOCATION, EMBEDDINGS,
+                Dl4jPosTaggerBundler.PARAM_TARGET_LOCATION, bundle);
+        SimplePipeline.runPipeline(testReader, bundler);
+        
+        AnalysisEngineDescription fullTagger = createEngineDescription(
+                Dl4jPosTagger.class,
+                Dl4jPosTagger.PARAM_MODEL_LOCATION, model,
+                Dl4jPosTagger.PARAM_EMBEDDINGS_LOCATION, EMBEDDINGS);
+        List<Span<String>> full = EvalUtil.loadSamples(iteratePipeline(testReader, fullTagger),
+                POS.class, pos -> pos.getPosValue());
+        
+        AnalysisEngineDescription bundleTagger = createEngineDescription(
+                Dl4jPosTagger.class,
+                Dl4jPosTagger.PARAM_MODEL_LOCATION, bundle);
+        List<Span<String>> bundled = EvalUtil.loadSamples(
+                iteratePipeline(testReader, bundleTagger), POS.class, pos -> pos.getPosValue());
+        
+        // All words of the test data are in the bundle, so the tags must not change
+        assertEquals(full, bundled);
+        System.out.printf("embeddings: %d kB  bundle: %d kB%n",
+                new File(EMBEDDINGS).length() / 1024, bundle.length() / 1024);
+    }
+    
+    private MultiLayerConfiguration bidirectionalLstm(int aFeaturesSize, int aMaxTagsetSize)
+    {
         double learningRate = 0.1;
         
-        MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder()
+        return new NeuralNetConfiguration.Builder()
                 .optimizationAlgo(OptimizationAlgorithm.STOCHASTIC_GRADIENT_DESCENT)
                 .seed(12345l)
                 .updater(new RmsProp(learningRate)).l2(1e-5)
@@ -141,32 +442,20 @@ public class Dl4jPosTaggerTrainerTest
                 .list()
                 .layer(0, new Bidirectional(Bidirectional.Mode.ADD, new LSTM.Builder()
                                 .activation(Activation.SOFTSIGN)
-                                .nIn(featuresSize)
+                                .nIn(aFeaturesSize)
                                 .nOut(200)
                                 .build()))
                 .layer(1, new RnnOutputLayer.Builder()
                                 .activation(Activation.SOFTMAX)
                                 .lossFunction(LossFunctions.LossFunction.MCXENT)
                                 .nIn(200)
-                                .nOut(maxTagsetSize)
+                                .nOut(aMaxTagsetSize)
                                 .build())
                 .build();
-        
-        Result results = test(conf.toJson(), embeddings, maxTagsetSize, epochs, batchSize, shuffle);
-
-        // DIM = 50
-        assertEquals(0.742591, results.getFscore(), 0.0001);
-        assertEquals(0.734754, results.getPrecision(), 0.0001);
-        assertEquals(0.750596, results.getRecall(), 0.0001);
-
-        // DIM = 100
-        // assertEquals(0.742591, results.getFscore(), 0.0001);
-        // assertEquals(0.734754, results.getPrecision(), 0.0001);
-        // assertEquals(0.750596, results.getRecall(), 0.0001);
     }
     
     public Result test(String network, String embeddings, int maxTagsetSize, int aEpochs,
-            int aBatchSize, boolean aEpochShuffle)
+            int aBatchSize, boolean aEpochShuffle, int aTaggerBatchSize)
         throws Exception
     {
         File targetFolder = testContext.getTestOutputFolder();
@@ -174,24 +463,10 @@ public class Dl4jPosTaggerTrainerTest
         Split split = ds.getSplit(0.8);
         
         // Train model
-        File model = new File(targetFolder, "model.bin");
-        CollectionReaderDescription trainReader = createReaderDescription(
-                Conll2006Reader.class,
-                Conll2006Reader.PARAM_PATTERNS, split.getTrainingFiles(),
-                Conll2006Reader.PARAM_LANGUAGE, ds.getLanguage(),
-                Conll2006Reader.PARAM_USE_CPOS_AS_POS, true);
-        
-        AnalysisEngineDescription trainer = createEngineDescription(
-                Dl4jPosTaggerTrainer.class,
-                Dl4jPosTaggerTrainer.PARAM_NETWORK, network,
+        train(split, network, embeddings, maxTagsetSize,
                 Dl4jPosTaggerTrainer.PARAM_EPOCHS, aEpochs,
-                Dl4jPosTaggerTrainer.PARAM_EPOCH_SHUFFLE, aEpochShuffle,
                 Dl4jPosTaggerTrainer.PARAM_BATCH_SIZE, aBatchSize,
-                Dl4jPosTaggerTrainer.PARAM_TARGET_LOCATION, model,
-                Dl4jPosTaggerTrainer.PARAM_EMBEDDINGS_LOCATION, embeddings,
-                Dl4jPosTaggerTrainer.PARAM_MAX_TAGSET_SIZE, maxTagsetSize);
-        
-        SimplePipeline.runPipeline(trainReader, trainer);
+                Dl4jPosTaggerTrainer.PARAM_EPOCH_SHUFFLE, aEpochShuffle);
 
         // Apply model and collect labels
         System.out.println("Applying model to test data");
@@ -205,18 +480,21 @@ public class Dl4jPosTaggerTrainerTest
                 Dl4jPosTagger.class,
                 //Dl4jPosTagger.PARAM_PRINT_TAGSET, true,
                 Dl4jPosTagger.PARAM_MODEL_LOCATION, new File(targetFolder, "model.bin"),
-                Dl4jPosTagger.PARAM_EMBEDDINGS_LOCATION, embeddings);
+                Dl4jPosTagger.PARAM_EMBEDDINGS_LOCATION, embeddings,
+                Dl4jPosTagger.PARAM_BATCH_SIZE, aTaggerBatchSize);
 
         AnalysisEngineDescription out = createEngineDescription(
                 Conll2006Writer.class,
                 Conll2006Writer.PARAM_SINGULAR_TARGET, true,
                 Conll2006Writer.PARAM_TARGET_LOCATION, new File(targetFolder, "data.conll"));
         
+        long start = System.currentTimeMillis();
         List<Span<String>> actual = EvalUtil.loadSamples(iteratePipeline(testReader, ner, out),
                 POS.class, pos -> {
                     return pos.getPosValue();
                 });
-        System.out.printf("Actual samples: %d%n", actual.size());
+        System.out.printf("Actual samples: %d (tagged in %d ms)%n", actual.size(),
+                System.currentTimeMillis() - start);
         
         // Read reference data collect labels
         ConfigurationParameterFactory.setParameter(testReader, 
@@ -229,6 +507,48 @@ public class Dl4jPosTaggerTrainerTest
         return EvalUtil.dumpResults(targetFolder, expected, actual);
     }
 
+    /**
+     * Train a model on the training part of the split and write it to {@code model.bin} in the
+     * test output folder. Further trainer parameters can be given as name/value pairs, all others
+     * keep their defaults.
+     * 
+     * @return the model file.
+     */
+    private File train(Split aSplit, String aNetwork, String aEmbeddings, int aMaxTagsetSize,
+            Object... aParameters)
+        throws Exception
+    {
+        CollectionReaderDescription trainReader = createReaderDescription(
+                Conll2006Reader.class,
+                Conll2006Reader.PARAM_PATTERNS, aSplit.getTrainingFiles(),
+                Conll2006Reader.PARAM_LANGUAGE, ds.getLanguage(),
+                Conll2006Reader.PARAM_USE_CPOS_AS_POS, true);
+        
+        File model = new File(testContext.getTestOutputFolder(), "model.bin");
+        List<Object> parameters = new ArrayList<>(asList(
+                Dl4jPosTaggerTrainer.PARAM_NETWORK, aNetwork,
+                Dl4jPosTaggerTrainer.PARAM_TARGET_LOCATION, model,
+                Dl4jPosTaggerTrainer.PARAM_EMBEDDINGS_LOCATION, aEmbeddings,
+                Dl4jPosTaggerTrainer.PARAM_MAX_TAGSET_SIZE, aMaxTagsetSize));
+        parameters.addAll(asList(aParameters));
+        
+        AnalysisEngineDescription trainer = createEngineDescription(Dl4jPosTaggerTrainer.class,
+                parameters.toArray());
+        
+        SimplePipeline.runPipeline(trainReader, trainer);
+        
+        return model;
+    }
+    
+    /**
+     * @return the bidirectional LSTM for the default embeddings and tagset size.
+     */
+    private String defaultNetwork()
+        throws IOException
+    {
+        return bidirectionalLstm(getEmbeddingsSize(EMBEDDINGS), MAX_TAGSET_SIZE).toJson();
+    }
+    
     private int getEmbeddingsSize(String embeddings)
         throws IOException
     {
@@ -243,10 +563,10 @@ public class Dl4jPosTaggerTrainerTest
         DatasetFactory loader = new DatasetFactory(DkproTestContext.getCacheFolder());
         ds = loader.load("gum-en-conll-2.2.0");
 
-        convertGloveVectors();
+        convertGloveVectors(VectorEncoding.FLOAT32);
     }
 
-    public static void convertGloveVectors()
+    public static String convertGloveVectors(VectorEncoding aEncoding)
         throws Exception
     {
         DatasetFactory loader = new DatasetFactory(DkproTestContext.getCacheFolder());
@@ -254,18 +574,37 @@ public class Dl4jPosTaggerTrainerTest
         
         File input = dsGlove.getFile("glove/glove.6B." + DIM + "d.txt");
         String output = "target/glove.6B." + DIM + "d.dl4jw2v";
+        if (aEncoding != VectorEncoding.FLOAT32) {
+            output = "target/glove.6B." + DIM + "d-" + aEncoding.name().toLowerCase(Locale.US)
+                    + ".dl4jw2v";
+        }
         
-        System.out.println("Loading vectors...");
-        WordVectors wv = WordVectorSerializer.loadTxtVectors(new FileInputStream(input), false);
-        System.out.println("Loading vectors... complete");
-
         System.out.println("Converting vectors...");
-        BinaryWordVectorSerializer.convertWordVectorsToBinary(wv, true, Locale.US, Paths.get(output));
+        StreamingVectorConverter converter = new StreamingVectorConverter(Format.GLOVE);
+        converter.setCaseless(true);
+        converter.setLocale(Locale.US);
+        converter.setEncoding(aEncoding);
+        converter.convert(input.toPath(), Paths.get(output));
         System.out.println("Converting vectors... complete");
         
-        System.out.println("Verifying vectors...");
-        BinaryWordVectorSerializer.verify(wv, Paths.get(output));
-        System.out.println("Verifying vectors... complete");
+        System.out.println("Checking vectors...");
+        BinaryWordVectorSerializer.verifyChecksums(Paths.get(output),
+                Runtime.getRuntime().availableProcessors());
+        System.out.println("Checking vectors... complete");
+        
+        // Quantized vectors are not expected to be identical to the original ones
+        if (aEncoding == VectorEncoding.FLOAT32) {
+            System.out.println("Loading vectors...");
+            WordVectors wv = WordVectorSerializer.loadTxtVectors(new FileInputStream(input),
+                    false);
+            System.out.println("Loading vectors... complete");
+
+            System.out.println("Verifying vectors...");
+            BinaryWordVectorSerializer.verify(wv, Paths.get(output));
+            System.out.println("Verifying vectors... complete");
+        }
+        
+        return output;
     }
     
     @Rule
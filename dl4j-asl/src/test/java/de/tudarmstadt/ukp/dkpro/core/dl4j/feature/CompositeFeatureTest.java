@@ -0,0 +1,84 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.feature;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+public class CompositeFeatureTest
+{
+    @Test
+    public void testLayout()
+        throws Exception
+    {
+        ShapeFeature shape = new ShapeFeature();
+        CompositeFeature feature = new CompositeFeature(shape, new AffixFeature(true, 2, 8));
+        assertEquals(1 + 16, feature.size());
+        assertEquals(1, feature.getOffset(1));
+        
+        // Second sentence of a [sentences, features, positions] tensor
+        List<String> words = asList("Dogs", "run", "a");
+        INDArray features = Nd4j.create(2, feature.size(), 4);
+        long[] stride = features.stride();
+        feature.applyInto(words, features.data(), features.offset() + stride[0], stride[2],
+                stride[1]);
+        
+        // Components set by the suffix feature per word relative to its block - the bucket of
+        // the 1-suffix followed by 8 plus the bucket of the 2-suffix; "a" has no 2-suffix
+        int[][] suffixComponents = { { 0, 8 }, { 0, 9 }, { 4 } };
+        
+        for (int t = 0; t < words.size(); t++) {
+            float[] expected = new float[feature.size()];
+            expected[0] = shape.apply(words.get(t)).getFloat(ShapeFeature.CASE);
+            for (int c : suffixComponents[t]) {
+                expected[1 + c] = 1f;
+            }
+            
+            for (int i = 0; i < feature.size(); i++) {
+                assertEquals(words.get(t) + "[" + i + "]", expected[i],
+                        features.getFloat(1, i, t), 0f);
+                assertEquals(0f, features.getFloat(0, i, t), 0f);
+            }
+        }
+        
+        // Capitalization followed by one component per suffix length
+        assertEquals(1f, features.getFloat(1, 0, 0), 0f);
+        assertEquals(0f, features.getFloat(1, 0, 1), 0f);
+        assertEquals(3f, sum(features, 1, 0, feature.size()), 0f);
+        assertEquals(2f, sum(features, 1, 1, feature.size()), 0f);
+        assertEquals(1f, sum(features, 1, 2, feature.size()), 0f);
+        
+        // The position behind the words stays empty
+        assertEquals(0f, sum(features, 1, 3, feature.size()), 0f);
+    }
+
+    private static float sum(INDArray aFeatures, int aSentence, int aPosition, int aSize)
+    {
+        float sum = 0;
+        for (int i = 0; i < aSize; i++) {
+            sum += aFeatures.getFloat(aSentence, i, aPosition);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Locale;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.BinaryVectorizer;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.Header;
+import de.tudarmstadt.ukp.dkpro.core.testing.DkproTestContext;
+
+public class BinaryVectorizerRegistryTest
+{
+    @Test
+    public void testSharing()
+        throws Exception
+    {
+        Path file = new File(testContext.getTestOutputFolder(), "vectors.dl4jw2v").toPath();
+        BinaryWordVectorSerializer.writeBinary(new Header(Header.VERSION, 2, false, Locale.US),
+                new String[] { "a", "b" }, word -> new float[] { 1.0f, 2.0f }, new float[2],
+                file);
+
+        // A different spelling of the same path must yield the same instance
+        BinaryVectorizer vec1 = BinaryVectorizerRegistry.acquire(file);
+        BinaryVectorizer vec2 = BinaryVectorizerRegistry
+                .acquire(file.getParent().resolve(".").resolve(file.getFileName()));
+        assertSame(vec1, vec2);
+        assertEquals(2, BinaryVectorizerRegistry.getReferenceCount(file));
+
+        BinaryVectorizerRegistry.release(vec1);
+        assertEquals(1, BinaryVectorizerRegistry.getReferenceCount(file));
+        BinaryVectorizerRegistry.release(vec2);
+        assertEquals(0, BinaryVectorizerRegistry.getReferenceCount(file));
+
+        // Once the last user is gone, the file is loaded afresh
+        BinaryVectorizer vec3 = BinaryVectorizerRegistry.acquire(file);
+        assertNotSame(vec1, vec3);
+        BinaryVectorizerRegistry.release(vec3);
+    }
+
+    @Test
+    public void testRewrittenFile()
+        throws Exception
+    {
+        File folder = testContext.getTestOutputFolder();
+        Path file = new File(folder, "vectors.dl4jw2v").toPath();
+        BinaryWordVectorSerializer.writeBinary(new Header(Header.VERSION, 2, false, Locale.US),
+                new String[] { "a" }, word -> new float[] { 1.0f, 2.0f }, new float[2], file);
+        BinaryVectorizer vec1 = BinaryVectorizerRegistry.acquire(file);
+        
+        // Replace the file while it is still in use
+        Path update = new File(folder, "update.dl4jw2v").toPath();
+        BinaryWordVectorSerializer.writeBinary(new Header(Header.VERSION, 2, false, Locale.US),
+                new String[] { "a" }, word -> new float[] { 3.0f, 4.0f }, new float[2], update);
+        Files.move(update, file, StandardCopyOption.REPLACE_EXISTING);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(
+                Files.getLastModifiedTime(file).toMillis() + 10_000));
+        
+        BinaryVectorizer vec2 = BinaryVectorizerRegistry.acquire(file);
+        assertNotSame(vec1, vec2);
+        assertEquals(3.0f, vec2.vectorize("a")[0], 0f);
+        
+        BinaryVectorizerRegistry.release(vec1);
+        BinaryVectorizerRegistry.release(vec2);
+        assertEquals(0, BinaryVectorizerRegistry.getReferenceCount(file));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReleaseUnknown()
+        throws Exception
+    {
+        Path file = new File(testContext.getTestOutputFolder(), "vectors.dl4jw2v").toPath();
+        BinaryWordVectorSerializer.writeBinary(new Header(Header.VERSION, 2, false, Locale.US),
+                new String[] { "a" }, word -> new float[2], new float[2], file);
+
+        BinaryVectorizerRegistry.release(BinaryVectorizer.load(file));
+    }
+
+    @Rule
+    public DkproTestContext testContext = new DkproTestContext();
+}
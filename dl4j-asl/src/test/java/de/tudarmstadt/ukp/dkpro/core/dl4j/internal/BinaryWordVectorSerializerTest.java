@@ -0,0 +1,539 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.deeplearning4j.models.embeddings.inmemory.InMemoryLookupTable;
+import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.models.word2vec.VocabWord;
+import org.deeplearning4j.models.word2vec.wordstore.inmemory.AbstractCache;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.BinaryVectorizer;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.Header;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.VectorSource;
+import de.tudarmstadt.ukp.dkpro.core.testing.DkproTestContext;
+
+public class BinaryWordVectorSerializerTest
+{
+    private static final String[] WORDS = { "the", "house", "Haus", "Straße", "naïve", "日本",
+            "😀", "a", "zebra", "" };
+
+    private static final int DIM = 7;
+
+    @Test
+    public void testVersion1()
+        throws Exception
+    {
+        assertRoundTrip(1, VectorEncoding.FLOAT32, 0.0f);
+    }
+
+    @Test
+    public void testVersion2()
+        throws Exception
+    {
+        assertRoundTrip(2, VectorEncoding.FLOAT32, 0.0f);
+    }
+
+    @Test
+    public void testVersion1DamagedIndex()
+        throws Exception
+    {
+        Map<String, float[]> vectors = randomVectors(WORDS, DIM);
+        File file = new File(testContext.getTestOutputFolder(), "vectors.dl4jw2v");
+        BinaryWordVectorSerializer.writeBinary(new Header(1, DIM, false, Locale.US),
+                WORDS.clone(), vectors::get, new float[DIM], file.toPath());
+        
+        // The index is the last section of a version 1 file - overwrite all its slots behind the
+        // capacity with positions far beyond the vocabulary
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long start = raf.length() - WordHashIndex.sizeInBytes(WORDS.length) + Integer.BYTES;
+            raf.seek(start);
+            for (long p = start; p < raf.length(); p += Integer.BYTES) {
+                raf.writeInt(Integer.MAX_VALUE);
+            }
+        }
+        
+        // The damaged index is ignored in favour of one built from the words
+        BinaryVectorizer vec = BinaryVectorizer.load(file.toPath());
+        for (String word : WORDS) {
+            assertArrayEquals(word, vectors.get(word), vec.vectorize(word), 0.0f);
+        }
+        assertFalse(vec.contains("houses"));
+    }
+
+    @Test
+    public void testFloat16()
+        throws Exception
+    {
+        // Components are in [-0.5, 0.5) so the absolute error is at most 2^-12
+        assertRoundTrip(2, VectorEncoding.FLOAT16, 0.00025f);
+    }
+
+    @Test
+    public void testInt8()
+        throws Exception
+    {
+        // The quantization step is at most 0.5 / 127
+        assertRoundTrip(2, VectorEncoding.INT8, 0.002f);
+    }
+
+    @Test
+    public void testCaseless()
+        throws Exception
+    {
+        Map<String, float[]> vectors = randomVectors(new String[] { "house", "tree" }, DIM);
+        File file = new File(testContext.getTestOutputFolder(), "vectors.dl4jw2v");
+        BinaryWordVectorSerializer.writeBinary(new Header(Header.VERSION, DIM, true, Locale.US),
+                vectors.keySet().toArray(new String[0]), vectors::get, new float[DIM],
+                file.toPath());
+
+        BinaryVectorizer vec = BinaryVectorizer.load(file.toPath());
+        assertTrue(vec.contains("House"));
+        assertArrayEquals(vectors.get("house"), vec.vectorize("HOUSE"), 0.0f);
+    }
+
+    @Test
+    public void testVectorizeInto()
+        throws Exception
+    {
+        Map<String, float[]> vectors = randomVectors(WORDS, DIM);
+        float[] unk = randomVector(new Random(0), DIM);
+
+        File file = new File(testContext.getTestOutputFolder(), "vectors.dl4jw2v");
+        BinaryWordVectorSerializer.writeBinary(new Header(Header.VERSION, DIM, false, Locale.US),
+                WORDS.clone(), vectors::get, unk, file.toPath());
+
+        BinaryVectorizer vec = BinaryVectorizer.load(file.toPath());
+
+        // Place the vectors of two words behind each other with some padding in front
+        float[] array = new float[2 * DIM + 3];
+        vec.vectorizeInto("house", array, 3);
+        vec.vectorizeInto("houses", array, 3 + DIM);
+        assertArrayEquals(vectors.get("house"), Arrays.copyOfRange(array, 3, 3 + DIM), 0.0f);
+        assertArrayEquals(unk, Arrays.copyOfRange(array, 3 + DIM, array.length), 0.0f);
+
+        FloatBuffer buffer = FloatBuffer.allocate(DIM + 1);
+        vec.vectorizeInto("zebra", buffer, 1);
+        assertEquals(0, buffer.position());
+        assertArrayEquals(vectors.get("zebra"),
+                Arrays.copyOfRange(buffer.array(), 1, buffer.capacity()), 0.0f);
+    }
+
+    @Test
+    public void testConcurrentAccess()
+        throws Exception
+    {
+        String[] words = new String[5_000];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = "word" + i;
+        }
+        Map<String, float[]> vectors = randomVectors(words, DIM);
+
+        for (VectorEncoding encoding : VectorEncoding.values()) {
+            File file = new File(testContext.getTestOutputFolder(),
+                    "vectors-" + encoding + ".dl4jw2v");
+            BinaryWordVectorSerializer.writeBinary(
+                    new Header(Header.VERSION, DIM, false, Locale.US, encoding), words.clone(),
+                    vectors::get, new float[DIM], file.toPath());
+            
+            BinaryVectorizer vec = BinaryVectorizer.load(file.toPath());
+            
+            // Single-threaded reference - the encoding may be lossy, so compare against what
+            // the vectorizer itself decodes rather than against the original vectors
+            Map<String, float[]> expected = new HashMap<>();
+            for (String word : words) {
+                expected.put(word, vec.vectorize(word).clone());
+            }
+
+            // Hammer the same instance from many threads, each reading words in its own order
+            int threads = 8;
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<Integer>> results = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    long seed = t;
+                    Callable<Integer> task = () -> {
+                        Random rnd = new Random(seed);
+                        float[] buffer = new float[DIM];
+                        int checked = 0;
+                        for (int i = 0; i < 50_000; i++) {
+                            String word = words[rnd.nextInt(words.length)];
+                            if (rnd.nextBoolean()) {
+                                assertArrayEquals(word, expected.get(word), vec.vectorize(word),
+                                        0.0f);
+                            }
+                            else {
+                                vec.vectorizeInto(word, buffer, 0);
+                                assertArrayEquals(word, expected.get(word), buffer, 0.0f);
+                            }
+                            checked++;
+                        }
+                        return checked;
+                    };
+                    results.add(executor.submit(task));
+                }
+                
+                for (Future<Integer> result : results) {
+                    // Rethrows any assertion failure from the worker thread
+                    assertEquals(50_000, (int) result.get());
+                }
+            }
+            finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    public void testConvertWordVectorsToBinary()
+        throws Exception
+    {
+        String[] words = { "the", "house", "Haus", "Straße", "日本", "zebra" };
+
+        // The weights are taken from the inside of a larger matrix so they start at a non-zero
+        // offset and have a row stride larger than the vector length. The transposed matrix
+        // additionally has a column stride other than 1.
+        INDArray backing = Nd4j.rand(words.length + 2, DIM + 3, 12345);
+        List<INDArray> layouts = asList(
+                backing.get(NDArrayIndex.interval(1, words.length + 1),
+                        NDArrayIndex.interval(2, DIM + 2)),
+                Nd4j.rand(DIM, words.length, 12345).transpose());
+
+        for (int l = 0; l < layouts.size(); l++) {
+            WordVectors wv = wordVectors(words, layouts.get(l));
+            File file = new File(testContext.getTestOutputFolder(), "vectors-" + l + ".dl4jw2v");
+            BinaryWordVectorSerializer.convertWordVectorsToBinary(wv, false, Locale.US,
+                    file.toPath());
+
+            BinaryVectorizer vec = BinaryVectorizer.load(file.toPath());
+            for (String word : words) {
+                double[] expected = wv.getWordVector(word);
+                float[] actual = vec.vectorize(word);
+                assertEquals(word, expected.length, actual.length);
+                for (int i = 0; i < expected.length; i++) {
+                    assertEquals(word, (float) expected[i], actual[i], 0.0f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPrune()
+        throws Exception
+    {
+        Map<String, float[]> vectors = randomVectors(WORDS, DIM);
+        float[] unk = randomVector(new Random(0), DIM);
+
+        File file = new File(testContext.getTestOutputFolder(), "vectors.dl4jw2v");
+        BinaryWordVectorSerializer.writeBinary(
+                new Header(Header.VERSION, DIM, false, Locale.US, VectorEncoding.FLOAT16),
+                WORDS.clone(), vectors::get, unk, file.toPath());
+        BinaryVectorizer vec = BinaryVectorizer.load(file.toPath());
+        
+        String[] kept = { "zebra", "Haus", "日本" };
+        int[] indexes = new int[kept.length];
+        for (int i = 0; i < kept.length; i++) {
+            indexes[i] = vec.indexOf(kept[i]);
+        }
+        
+        File prunedFile = new File(testContext.getTestOutputFolder(), "pruned.dl4jw2v");
+        BinaryWordVectorSerializer.prune(vec, indexes, prunedFile.toPath());
+        BinaryVectorizer pruned = BinaryVectorizer.load(prunedFile.toPath());
+        
+        assertEquals(VectorEncoding.FLOAT16, pruned.getHeader().getEncoding());
+        assertEquals(kept.length, pruned.getVocabulary().size());
+        for (String word : kept) {
+            assertArrayEquals(word, vec.vectorize(word), pruned.vectorize(word), 0.0f);
+        }
+        assertFalse(pruned.contains("house"));
+        assertArrayEquals(unk, pruned.vectorize("house"), 0.0f);
+    }
+
+    @Test
+    public void testLoadAtOffset()
+        throws Exception
+    {
+        Map<String, float[]> vectors = randomVectors(WORDS, DIM);
+
+        File file = new File(testContext.getTestOutputFolder(), "vectors.dl4jw2v");
+        BinaryWordVectorSerializer.writeBinary(new Header(Header.VERSION, DIM, false, Locale.US),
+                WORDS.clone(), vectors::get, new float[DIM], file.toPath());
+        
+        // Embed the vectors in a larger file
+        byte[] prefix = new byte[13];
+        File container = new File(testContext.getTestOutputFolder(), "container.bin");
+        try (OutputStream out = new FileOutputStream(container)) {
+            out.write(prefix);
+            Files.copy(file.toPath(), out);
+            out.write(prefix);
+        }
+        
+        BinaryVectorizer vec = BinaryVectorizer.load(container.toPath(), prefix.length);
+        assertEquals(WORDS.length, vec.getVocabulary().size());
+        for (String word : WORDS) {
+            assertArrayEquals(word, vectors.get(word), vec.vectorize(word), 0.0f);
+        }
+    }
+
+    @Test
+    public void testChecksums()
+        throws Exception
+    {
+        Map<String, float[]> vectors = randomVectors(WORDS, DIM);
+
+        for (VectorEncoding encoding : VectorEncoding.values()) {
+            File file = new File(testContext.getTestOutputFolder(), "vectors.dl4jw2v");
+            BinaryWordVectorSerializer.writeBinary(
+                    new Header(Header.VERSION, DIM, false, Locale.US, encoding), WORDS.clone(),
+                    vectors::get, new float[DIM], file.toPath());
+            
+            BinaryWordVectorSerializer.verifyChecksums(file.toPath(), 2);
+            BinaryVectorizer.load(file.toPath(), 0, true);
+            
+            // Flip a bit in the last vector
+            long vectorsEnd = file.length() - (VectorChecksums.MAGIC.length() + 6 * Integer.BYTES);
+            flip(file, vectorsEnd - 1);
+            try {
+                BinaryWordVectorSerializer.verifyChecksums(file.toPath(), 2);
+                fail("Corrupted vectors not detected");
+            }
+            catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("vector block"));
+            }
+            
+            // The load-time check does not cover the vectors...
+            BinaryVectorizer.load(file.toPath(), 0, true);
+            
+            // ... but it does cover the vocabulary
+            flip(file, 30);
+            try {
+                BinaryVectorizer.load(file.toPath(), 0, true);
+                fail("Corrupted vocabulary not detected");
+            }
+            catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("vocabulary"));
+            }
+        }
+    }
+
+    @Test
+    public void testDamagedChecksumTrailer()
+        throws Exception
+    {
+        Map<String, float[]> vectors = randomVectors(WORDS, DIM);
+        File file = new File(testContext.getTestOutputFolder(), "vectors.dl4jw2v");
+        
+        // Block size and block count in a trailer with a single block checksum
+        long trailer = VectorChecksums.MAGIC.length() + 6 * Integer.BYTES;
+        long[] positions = { trailer - VectorChecksums.MAGIC.length(), 2 * Integer.BYTES };
+        int[][] values = { { 0, -1 }, { 0, 2, -1 } };
+        
+        for (int p = 0; p < positions.length; p++) {
+            for (int value : values[p]) {
+                BinaryWordVectorSerializer.writeBinary(new Header(Header.VERSION, DIM, false,
+                        Locale.US), WORDS.clone(), vectors::get, new float[DIM], file.toPath());
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.seek(raf.length() - positions[p]);
+                    raf.writeInt(value);
+                }
+                
+                try {
+                    BinaryWordVectorSerializer.verifyChecksums(file.toPath(), 2);
+                    fail("Damaged trailer with [" + value + "] not detected");
+                }
+                catch (IOException e) {
+                    // Expected
+                }
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testChecksumsVersion1()
+        throws Exception
+    {
+        Map<String, float[]> vectors = randomVectors(WORDS, DIM);
+        File file = new File(testContext.getTestOutputFolder(), "vectors.dl4jw2v");
+        BinaryWordVectorSerializer.writeBinary(new Header(1, DIM, false, Locale.US),
+                WORDS.clone(), vectors::get, new float[DIM], file.toPath());
+        
+        BinaryWordVectorSerializer.verifyChecksums(file.toPath(), 2);
+    }
+
+    /**
+     * Measures the write throughput for a table of the size of typical pre-trained embeddings.
+     */
+    @Ignore("Benchmark")
+    @Test
+    public void benchmarkWriteBinary()
+        throws Exception
+    {
+        int wordCount = 400_000;
+        int dim = 300;
+        
+        // Vectors are taken from a small pool so the table itself does not need to fit in memory
+        Random rnd = new Random(1);
+        float[][] pool = new float[1024][dim];
+        for (float[] vector : pool) {
+            for (int i = 0; i < dim; i++) {
+                vector[i] = rnd.nextFloat() - 0.5f;
+            }
+        }
+        VectorSource source = word -> pool[Integer.parseInt(word.substring(1)) % pool.length];
+        
+        File file = new File(testContext.getTestOutputFolder(), "vectors.dl4jw2v");
+        StringBuilder report = new StringBuilder();
+        for (VectorEncoding encoding : VectorEncoding.values()) {
+            String[] words = new String[wordCount];
+            for (int i = 0; i < wordCount; i++) {
+                words[i] = "w" + i;
+            }
+            
+            long start = System.currentTimeMillis();
+            BinaryWordVectorSerializer.writeBinary(
+                    new Header(Header.VERSION, dim, false, Locale.US, encoding), words, source,
+                    new float[dim], file.toPath());
+            long duration = System.currentTimeMillis() - start;
+            
+            report.append(String.format("%-8s  size: %7d kB  write: %6d ms  %7.1f MB/s%n",
+                    encoding, file.length() / 1024, duration,
+                    file.length() / (1024.0 * 1024.0) / (duration / 1000.0)));
+        }
+        
+        System.out.print(report);
+    }
+
+    private void assertRoundTrip(int aVersion, VectorEncoding aEncoding, float aDelta)
+        throws Exception
+    {
+        Map<String, float[]> vectors = randomVectors(WORDS, DIM);
+        float[] unk = randomVector(new Random(0), DIM);
+
+        File file = new File(testContext.getTestOutputFolder(), "vectors.dl4jw2v");
+        BinaryWordVectorSerializer.writeBinary(
+                new Header(aVersion, DIM, false, Locale.US, aEncoding), WORDS.clone(),
+                vectors::get, unk, file.toPath());
+
+        BinaryVectorizer vec = BinaryVectorizer.load(file.toPath());
+        assertEquals(aVersion, vec.getHeader().getVersion());
+        assertEquals(aEncoding, vec.getHeader().getEncoding());
+        assertEquals(WORDS.length, vec.getVocabulary().size());
+        assertEquals(DIM, vec.getVectorSize());
+
+        for (String word : WORDS) {
+            assertTrue(word, vec.contains(word));
+            assertEquals(word, word, vec.getVocabulary().get(vec.getVocabulary().indexOf(word)));
+            assertArrayEquals(word, vectors.get(word), vec.vectorize(word), aDelta);
+        }
+
+        assertFalse(vec.contains("houses"));
+        assertFalse(vec.contains("hous"));
+        assertFalse(vec.contains("Strasse"));
+        assertArrayEquals(unk, vec.vectorize("houses"), 0.0f);
+    }
+
+    private static void flip(File aFile, long aPosition)
+        throws IOException
+    {
+        try (RandomAccessFile file = new RandomAccessFile(aFile, "rw")) {
+            file.seek(aPosition);
+            int b = file.read();
+            file.seek(aPosition);
+            file.write(b ^ 0x01);
+        }
+    }
+
+    /**
+     * @return in-memory word vectors which use the rows of the given matrix as vectors.
+     */
+    private static WordVectors wordVectors(String[] aWords, INDArray aWeights)
+    {
+        AbstractCache<VocabWord> vocab = new AbstractCache<>();
+        for (int i = 0; i < aWords.length; i++) {
+            VocabWord word = new VocabWord(1.0, aWords[i]);
+            word.setIndex(i);
+            vocab.addToken(word);
+            vocab.addWordToIndex(i, aWords[i]);
+        }
+
+        InMemoryLookupTable<VocabWord> table = new InMemoryLookupTable.Builder<VocabWord>()
+                .vectorLength(DIM)
+                .cache(vocab)
+                .build();
+        table.setSyn0(aWeights);
+        return WordVectorSerializer.fromTableAndVocab(table, vocab);
+    }
+
+    /**
+     * Random vectors for the given words. The map iterates in the order of the words.
+     */
+    static Map<String, float[]> randomVectors(String[] aWords, int aDim)
+    {
+        Random rnd = new Random(1);
+        Map<String, float[]> vectors = new LinkedHashMap<>();
+        for (String word : aWords) {
+            vectors.put(word, randomVector(rnd, aDim));
+        }
+        return vectors;
+    }
+
+    static float[] randomVector(Random aRandom, int aDim)
+    {
+        float[] vector = new float[aDim];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = aRandom.nextFloat() - 0.5f;
+        }
+        return vector;
+    }
+
+    @Rule
+    public DkproTestContext testContext = new DkproTestContext();
+}
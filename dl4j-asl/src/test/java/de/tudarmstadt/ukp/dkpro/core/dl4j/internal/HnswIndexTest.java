@@ -0,0 +1,147 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import static de.tudarmstadt.ukp.dkpro.core.dl4j.internal.NearestNeighborsTest.bruteForce;
+import static de.tudarmstadt.ukp.dkpro.core.dl4j.internal.NearestNeighborsTest.randomVectors;
+import static de.tudarmstadt.ukp.dkpro.core.dl4j.internal.NearestNeighborsTest.recall;
+import static de.tudarmstadt.ukp.dkpro.core.dl4j.internal.NearestNeighborsTest.write;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.BinaryVectorizer;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.NearestNeighbors.Neighbor;
+import de.tudarmstadt.ukp.dkpro.core.testing.DkproTestContext;
+
+public class HnswIndexTest
+{
+    @Test
+    public void testRecall()
+        throws Exception
+    {
+        float[][] vectors = randomVectors(5_000);
+        BinaryVectorizer vec = write(vectors, testContext.getTestOutputFolder());
+        
+        HnswIndex index = HnswIndex.build(vec, 16, 100, 0);
+        double recall = 0;
+        int queries = 50;
+        for (int q = 0; q < queries; q++) {
+            int query = q * 97;
+            List<Neighbor> actual = index.nearest(vec.getVocabulary().get(query), 10, 100);
+            assertEquals(10, actual.size());
+            for (Neighbor n : actual) {
+                assertTrue(n.getIndex() != query);
+            }
+            recall += recall(actual, bruteForce(vectors, vec, query, 10));
+        }
+        recall /= queries;
+        
+        assertTrue("Recall too low: " + recall, recall > 0.9);
+    }
+
+    @Test
+    public void testPersistence()
+        throws Exception
+    {
+        float[][] vectors = randomVectors(1_000);
+        File folder = testContext.getTestOutputFolder();
+        BinaryVectorizer vec = write(vectors, folder);
+        Path vectorsFile = new File(folder, "vectors.dl4jw2v").toPath();
+        Path indexFile = new File(folder, "vectors.dl4jw2v" + HnswIndex.SUFFIX).toPath();
+        
+        assertFalse(indexFile.toFile().exists());
+        HnswIndex built = HnswIndex.open(vec, vectorsFile, 8, 50);
+        assertTrue(indexFile.toFile().exists());
+        HnswIndex loaded = HnswIndex.open(vec, vectorsFile, 8, 50);
+        
+        for (int q = 0; q < 20; q++) {
+            String word = vec.getVocabulary().get(q * 31);
+            assertEquals(built.nearest(word, 5, 20).toString(),
+                    loaded.nearest(word, 5, 20).toString());
+        }
+    }
+
+    @Test
+    public void testStaleIndex()
+        throws Exception
+    {
+        File folder = testContext.getTestOutputFolder();
+        BinaryVectorizer vec = write(randomVectors(200), folder);
+        Path vectorsFile = new File(folder, "vectors.dl4jw2v").toPath();
+        Path indexFile = new File(folder, "vectors.dl4jw2v" + HnswIndex.SUFFIX).toPath();
+        HnswIndex.open(vec, vectorsFile, 8, 50);
+        
+        // Replacing the vectors by ones with the same vocabulary size only changes the time
+        long modified = Files.getLastModifiedTime(vectorsFile).toMillis() + 10_000;
+        Files.setLastModifiedTime(vectorsFile, FileTime.fromMillis(modified));
+        try {
+            HnswIndex.read(vec, indexFile, modified);
+            fail("Stale index was not detected");
+        }
+        catch (IOException e) {
+            // Expected
+        }
+        
+        // Opening rebuilds the index for the new vectors
+        HnswIndex.open(vec, vectorsFile, 8, 50);
+        HnswIndex.read(vec, indexFile, modified);
+    }
+    
+    @Test(expected = IOException.class)
+    public void testDamagedIndex()
+        throws Exception
+    {
+        File folder = testContext.getTestOutputFolder();
+        BinaryVectorizer vec = write(randomVectors(200), folder);
+        Path indexFile = new File(folder, "index" + HnswIndex.SUFFIX).toPath();
+        HnswIndex.build(vec, 8, 50, 0).write(indexFile, 0);
+        
+        // Neighbour count on the bottom level of the first node, behind the 40 header bytes and
+        // the level count of the node
+        try (RandomAccessFile file = new RandomAccessFile(indexFile.toFile(), "rw")) {
+            file.seek(41);
+            file.writeInt(Integer.MAX_VALUE);
+        }
+        
+        HnswIndex.read(vec, indexFile, 0);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidM()
+        throws Exception
+    {
+        BinaryVectorizer vec = write(randomVectors(10), testContext.getTestOutputFolder());
+        HnswIndex.build(vec, 1, 50, 0);
+    }
+    
+    @Rule
+    public DkproTestContext testContext = new DkproTestContext();
+}
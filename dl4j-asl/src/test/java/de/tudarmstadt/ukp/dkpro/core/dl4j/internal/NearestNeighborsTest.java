@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.BinaryVectorizer;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.Header;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.NearestNeighbors.Neighbor;
+import de.tudarmstadt.ukp.dkpro.core.testing.DkproTestContext;
+
+public class NearestNeighborsTest
+{
+    static final int DIM = 16;
+    
+    @Test
+    public void testExact()
+        throws Exception
+    {
+        // More words than fit into a single chunk so the parallel merge is exercised
+        float[][] vectors = randomVectors(40_000);
+        BinaryVectorizer vec = write(vectors, testContext.getTestOutputFolder());
+        
+        NearestNeighbors search = new NearestNeighbors(vec);
+        for (int q = 0; q < 5; q++) {
+            int query = q * 7919;
+            String word = vec.getVocabulary().get(query);
+            
+            List<Neighbor> actual = search.nearest(word, 10);
+            int[] expected = bruteForce(vectors, vec, query, 10);
+            
+            assertEquals(10, actual.size());
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(word, expected[i], actual.get(i).getIndex());
+            }
+            for (int i = 1; i < actual.size(); i++) {
+                assertTrue(actual.get(i - 1).getSimilarity() >= actual.get(i).getSimilarity());
+            }
+        }
+        
+        // Same through the vectorizer
+        assertEquals(search.nearest("w0", 3).get(2).getWord(), vec.nearest("w0", 3).get(2)
+                .getWord());
+        assertTrue(vec.nearest("unknown", 3).isEmpty());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidK()
+        throws Exception
+    {
+        BinaryVectorizer vec = write(randomVectors(10), testContext.getTestOutputFolder());
+        new NearestNeighbors(vec).nearest("w0", 0);
+    }
+    
+    /**
+     * Exact neighbours computed in double precision directly from the original vectors.
+     */
+    static int[] bruteForce(float[][] aVectors, BinaryVectorizer aVec, int aQuery, int aK)
+    {
+        // The vectors are stored sorted by word, so map vocabulary positions to the originals
+        float[] query = aVectors[Integer.parseInt(aVec.getVocabulary().get(aQuery).substring(1))];
+        double[] similarity = new double[aVectors.length];
+        for (int i = 0; i < aVectors.length; i++) {
+            float[] v = aVectors[Integer.parseInt(aVec.getVocabulary().get(i).substring(1))];
+            double dot = 0;
+            double n1 = 0;
+            double n2 = 0;
+            for (int d = 0; d < DIM; d++) {
+                dot += query[d] * v[d];
+                n1 += query[d] * query[d];
+                n2 += v[d] * v[d];
+            }
+            similarity[i] = dot / Math.sqrt(n1 * n2);
+        }
+        
+        return IntStream.range(0, aVectors.length)
+                .filter(i -> i != aQuery)
+                .boxed()
+                .sorted(Comparator.comparingDouble((Integer i) -> similarity[i]).reversed())
+                .limit(aK)
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+    
+    static BinaryVectorizer write(float[][] aVectors, File aFolder)
+        throws Exception
+    {
+        String[] words = new String[aVectors.length];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = "w" + i;
+        }
+        
+        File file = new File(aFolder, "vectors.dl4jw2v");
+        BinaryWordVectorSerializer.writeBinary(new Header(Header.VERSION, DIM, false, Locale.US),
+                words, word -> aVectors[Integer.parseInt(word.substring(1))], new float[DIM],
+                file.toPath());
+        return BinaryVectorizer.load(file.toPath());
+    }
+    
+    static float[][] randomVectors(int aCount)
+    {
+        Random rnd = new Random(1);
+        float[][] vectors = new float[aCount][DIM];
+        for (float[] vector : vectors) {
+            for (int d = 0; d < DIM; d++) {
+                vector[d] = (float) rnd.nextGaussian();
+            }
+        }
+        return vectors;
+    }
+    
+    static double recall(List<Neighbor> aActual, int[] aExpected)
+    {
+        long hits = aActual.stream()
+                .filter(n -> Arrays.stream(aExpected).anyMatch(e -> e == n.getIndex()))
+                .count();
+        return (double) hits / aExpected.length;
+    }
+
+    @Rule
+    public DkproTestContext testContext = new DkproTestContext();
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.Test;
+import org.nd4j.linalg.dataset.DataSet;
+
+public class PrefetchingIteratorTest
+{
+    @Test
+    public void testOrder()
+        throws Exception
+    {
+        // 23 sentences in batches of 3 - the last batch is incomplete
+        List<EncodedSentence> sentences = new ArrayList<>();
+        for (int i = 0; i < 23; i++) {
+            sentences.add(new EncodedSentence(new int[] { i }, new int[] { 0 }));
+        }
+        
+        // Remember which sentence each batch starts with. Assembly takes a random amount of time
+        // so that the workers finish out of order.
+        Map<DataSet, Integer> firstSentence = Collections.synchronizedMap(
+                new IdentityHashMap<>());
+        SentenceBatchIterator source = new SentenceListIterator(sentences, null, 3, 1)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            DataSet assemble(List<EncodedSentence> aSentences)
+            {
+                try {
+                    Thread.sleep(ThreadLocalRandom.current().nextInt(5));
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                DataSet batch = new DataSet();
+                firstSentence.put(batch, aSentences.get(0).getWords()[0]);
+                return batch;
+            }
+        };
+        
+        try (PrefetchingIterator iterator = new PrefetchingIterator(source, 4, 3)) {
+            // Abort the first epoch half way through - prefetched batches must be discarded
+            iterator.reset();
+            iterator.next();
+            iterator.next();
+            
+            for (int epoch = 0; epoch < 2; epoch++) {
+                iterator.reset();
+                int expected = 0;
+                while (iterator.hasNext()) {
+                    assertEquals(expected, (int) firstSentence.get(iterator.next()));
+                    expected += 3;
+                }
+                assertEquals(24, expected);
+                assertFalse(iterator.hasNext());
+            }
+        }
+    }
+
+    @Test
+    public void testCustomBatchSize()
+        throws Exception
+    {
+        List<EncodedSentence> sentences = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            sentences.add(new EncodedSentence(new int[] { i }, new int[] { 0 }));
+        }
+        
+        // Remember the sentences of each batch
+        Map<DataSet, List<Integer>> content = Collections.synchronizedMap(
+                new IdentityHashMap<>());
+        SentenceBatchIterator source = new SentenceListIterator(sentences, null, 3, 1)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            DataSet assemble(List<EncodedSentence> aSentences)
+            {
+                List<Integer> words = new ArrayList<>();
+                for (EncodedSentence sentence : aSentences) {
+                    words.add(sentence.getWords()[0]);
+                }
+                DataSet batch = new DataSet();
+                content.put(batch, words);
+                return batch;
+            }
+        };
+        
+        try (PrefetchingIterator iterator = new PrefetchingIterator(source, 2, 2)) {
+            iterator.reset();
+            
+            // Prefetched batches are taken over, the rest of a split batch comes next
+            assertEquals(asList(0, 1, 2, 3), content.get(iterator.next(4)));
+            assertEquals(asList(4, 5), content.get(iterator.next()));
+            assertEquals(asList(6), content.get(iterator.next(1)));
+            assertEquals(asList(7, 8), content.get(iterator.next()));
+            assertEquals(asList(9), content.get(iterator.next(5)));
+            assertFalse(iterator.hasNext());
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SentenceBatchIteratorTest
+{
+    @Test
+    public void testSequential()
+        throws Exception
+    {
+        SentenceBatchIterator iterator = new SentenceListIterator(randomSentences(10), null, 4, 1);
+        
+        List<List<Integer>> batches = epoch(iterator);
+        assertEquals(3, batches.size());
+        assertEquals(asList(0, 1, 2, 3), batches.get(0));
+        assertEquals(asList(4, 5, 6, 7), batches.get(1));
+        assertEquals(asList(8, 9), batches.get(2));
+    }
+
+    @Test
+    public void testCustomBatchSize()
+        throws Exception
+    {
+        SentenceBatchIterator iterator = new SentenceListIterator(randomSentences(10), null, 4, 1);
+        iterator.reset();
+        
+        // Requests may cross the scheduled batches, the remainder of a batch is still returned
+        assertEquals(asList(0, 1, 2), firstWords(iterator.nextSentences(3)));
+        assertEquals(asList(3, 4, 5, 6, 7), firstWords(iterator.nextSentences(5)));
+        assertEquals(asList(8), firstWords(iterator.nextSentences(1)));
+        assertEquals(asList(9), firstWords(iterator.nextSentences()));
+        assertFalse(iterator.hasNext());
+        
+        iterator.reset();
+        assertEquals(asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), firstWords(iterator.nextSentences(20)));
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testShuffle()
+        throws Exception
+    {
+        List<EncodedSentence> sentences = randomSentences(1000);
+        
+        SentenceBatchIterator sequential = new SentenceListIterator(sentences, null, 25, 1);
+        epoch(sequential);
+        double sequentialPadding = sequential.getPaddingRatio();
+
+        SentenceBatchIterator shuffled = new SentenceListIterator(sentences, null, 25, 1);
+        shuffled.setShuffle(new Random(1));
+        List<List<Integer>> previous = null;
+        for (int e = 0; e < 3; e++) {
+            List<List<Integer>> batches = epoch(shuffled);
+            
+            // Every sentence is used exactly once per epoch
+            boolean[] seen = new boolean[sentences.size()];
+            for (List<Integer> batch : batches) {
+                for (int i : batch) {
+                    assertFalse(seen[i]);
+                    seen[i] = true;
+                }
+            }
+            assertEquals(sentences.size(), batches.stream().mapToInt(List::size).sum());
+            
+            // Batches differ from epoch to epoch
+            assertNotEquals(previous, batches);
+            previous = batches;
+            
+            // Total number of tokens is the same, only the padding changes
+            assertEquals(sequential.getTokenCount(), shuffled.getTokenCount());
+            assertTrue(shuffled.getPaddingRatio() < sequentialPadding / 4);
+        }
+    }
+
+    /**
+     * Run an epoch and return the sentences in each batch. Each sentence is identified by the
+     * word at its first position.
+     */
+    private static List<List<Integer>> epoch(SentenceBatchIterator aIterator)
+        throws Exception
+    {
+        aIterator.reset();
+        List<List<Integer>> batches = new ArrayList<>();
+        while (aIterator.hasNext()) {
+            batches.add(firstWords(aIterator.nextSentences()));
+        }
+        return batches;
+    }
+
+    private static List<Integer> firstWords(List<EncodedSentence> aSentences)
+    {
+        List<Integer> words = new ArrayList<>();
+        for (EncodedSentence sentence : aSentences) {
+            words.add(sentence.getWords()[0]);
+        }
+        return words;
+    }
+
+    private static List<EncodedSentence> randomSentences(int aCount)
+    {
+        // Sentence lengths roughly as in a treebank: mostly short, some very long
+        Random rnd = new Random(0);
+        List<EncodedSentence> sentences = new ArrayList<>();
+        for (int i = 0; i < aCount; i++) {
+            int length = 1 + (int) Math.min(149, Math.abs(rnd.nextGaussian() * 25));
+            int[] words = new int[length];
+            words[0] = i;
+            sentences.add(new EncodedSentence(words, new int[length]));
+        }
+        return sentences;
+    }
+}
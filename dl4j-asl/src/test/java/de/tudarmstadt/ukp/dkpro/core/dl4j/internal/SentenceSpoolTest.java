@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.BinaryVectorizer;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.Header;
+import de.tudarmstadt.ukp.dkpro.core.testing.DkproTestContext;
+
+public class SentenceSpoolTest
+{
+    private static final int MAX_TAGSET_SIZE = 6;
+
+    @Test
+    public void testSpool()
+        throws Exception
+    {
+        // Every component of the vector of word i is i + 1, the UNK vector is all zero
+        File vectors = new File(testContext.getTestOutputFolder(), "vectors.dl4jw2v");
+        BinaryWordVectorSerializer.writeBinary(new Header(Header.VERSION, 4, false, Locale.US),
+                new String[] { "a", "b", "c" }, word -> {
+                    float[] vector = new float[4];
+                    Arrays.fill(vector, word.charAt(0) - 'a' + 1);
+                    return vector;
+                }, new float[4], vectors.toPath());
+        BinaryVectorizer wordVectors = BinaryVectorizer.load(vectors.toPath());
+
+        // Five sentences of different lengths, including an unknown word
+        EncodedSentence[] sentences = {
+                sentence(0, 1, 2),
+                sentence(1),
+                sentence(2, -1, 0, 1),
+                sentence(0),
+                sentence(2, 2, 2, 2, 2) };
+
+        File file = new File(testContext.getTestOutputFolder(), "training.spool");
+        try (SentenceSpool spool = new SentenceSpool(file)) {
+            for (EncodedSentence sentence : sentences) {
+                spool.add(sentence);
+            }
+            spool.finish();
+            assertEquals(sentences.length, spool.getSentenceCount());
+
+            // Stream the sentences twice in batches of two as if training two epochs
+            DataSetIterator iterator = spool.iterator(wordVectors, 2, MAX_TAGSET_SIZE);
+            for (int epoch = 0; epoch < 2; epoch++) {
+                iterator.reset();
+                int examples = 0;
+                int batches = 0;
+                while (iterator.hasNext()) {
+                    DataSet batch = iterator.next();
+                    assertEquals(4, batch.getFeatures().size(1));
+                    assertEquals(MAX_TAGSET_SIZE, batch.getLabels().size(1));
+
+                    for (int s = 0; s < batch.numExamples(); s++) {
+                        assertSentence(sentences[examples + s], batch, s);
+                    }
+
+                    examples += batch.numExamples();
+                    batches++;
+                }
+                assertEquals(sentences.length, examples);
+                assertEquals(3, batches);
+            }
+        }
+
+        assertFalse(file.exists());
+    }
+
+    private static void assertSentence(EncodedSentence aExpected, DataSet aBatch, int aIndex)
+    {
+        for (int t = 0; t < aBatch.getFeatures().size(2); t++) {
+            boolean present = t < aExpected.length();
+            assertEquals(present ? 1.0 : 0.0,
+                    aBatch.getFeaturesMaskArray().getDouble(aIndex, t), 0.0);
+            assertEquals(present ? 1.0 : 0.0, aBatch.getLabelsMaskArray().getDouble(aIndex, t),
+                    0.0);
+            if (present) {
+                assertEquals(aExpected.getWords()[t] + 1,
+                        aBatch.getFeatures().getDouble(aIndex, 0, t), 0.0);
+                assertEquals(1.0, aBatch.getLabels()
+                        .getDouble(aIndex, aExpected.getTags()[t], t), 0.0);
+            }
+        }
+    }
+
+    private static EncodedSentence sentence(int... aWords)
+    {
+        int[] tags = new int[aWords.length];
+        for (int i = 0; i < tags.length; i++) {
+            tags[i] = i % MAX_TAGSET_SIZE;
+        }
+        return new EncodedSentence(aWords, tags);
+    }
+
+    @Rule
+    public DkproTestContext testContext = new DkproTestContext();
+}
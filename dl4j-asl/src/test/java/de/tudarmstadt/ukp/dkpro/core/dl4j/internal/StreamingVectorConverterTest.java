@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import static de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializerTest.randomVector;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.BinaryVectorizer;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.StreamingVectorConverter.Format;
+import de.tudarmstadt.ukp.dkpro.core.testing.DkproTestContext;
+
+public class StreamingVectorConverterTest
+{
+    private static final int DIM = 5;
+    
+    @Test
+    public void testGlove()
+        throws Exception
+    {
+        Map<String, float[]> vectors = randomVectors(50);
+        vectors.put("New York", randomVector(new Random(2), DIM));
+        
+        File source = new File(testContext.getTestOutputFolder(), "vectors.txt");
+        try (PrintWriter out = new PrintWriter(source, "UTF-8")) {
+            writeText(out, vectors);
+            // Duplicate - must not replace the first occurrence
+            out.println(line("word0", new float[DIM]));
+        }
+        
+        assertConversion(Format.GLOVE, source, vectors, 7);
+    }
+
+    @Test
+    public void testWord2VecText()
+        throws Exception
+    {
+        Map<String, float[]> vectors = randomVectors(50);
+        
+        File source = new File(testContext.getTestOutputFolder(), "vectors.txt");
+        try (PrintWriter out = new PrintWriter(source, "UTF-8")) {
+            out.println(vectors.size() + " " + DIM);
+            writeText(out, vectors);
+        }
+        
+        assertConversion(Format.WORD2VEC_TEXT, source, vectors, 7);
+    }
+
+    @Test
+    public void testWord2VecBinary()
+        throws Exception
+    {
+        Map<String, float[]> vectors = randomVectors(50);
+        
+        File source = new File(testContext.getTestOutputFolder(), "vectors.bin");
+        try (OutputStream out = new FileOutputStream(source)) {
+            out.write((vectors.size() + " " + DIM + "\n").getBytes(StandardCharsets.UTF_8));
+            for (Map.Entry<String, float[]> e : vectors.entrySet()) {
+                out.write((e.getKey() + " ").getBytes(StandardCharsets.UTF_8));
+                ByteBuffer buffer = ByteBuffer.allocate(DIM * Float.BYTES)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                buffer.asFloatBuffer().put(e.getValue());
+                out.write(buffer.array());
+                out.write('\n');
+            }
+        }
+        
+        assertConversion(Format.WORD2VEC_BINARY, source, vectors, 7);
+    }
+
+    @Test
+    public void testMultiPassMerge()
+        throws Exception
+    {
+        // One word per run yields more runs than can be merged at once
+        Map<String, float[]> vectors = randomVectors(300);
+        
+        File source = new File(testContext.getTestOutputFolder(), "vectors.txt");
+        try (PrintWriter out = new PrintWriter(source, "UTF-8")) {
+            writeText(out, vectors);
+        }
+        
+        assertConversion(Format.GLOVE, source, vectors, 1);
+    }
+
+    private void assertConversion(Format aFormat, File aSource, Map<String, float[]> aVectors,
+            int aRunSize)
+        throws Exception
+    {
+        float[] unk = randomVector(new Random(0), DIM);
+        
+        File target = new File(testContext.getTestOutputFolder(), "vectors.dl4jw2v");
+        StreamingVectorConverter converter = new StreamingVectorConverter(aFormat);
+        converter.setThreads(3);
+        converter.setRunSize(aRunSize);
+        converter.setUnk(unk);
+        converter.convert(aSource.toPath(), target.toPath());
+        BinaryWordVectorSerializer.verifyChecksums(target.toPath(), 2);
+        
+        BinaryVectorizer vec = BinaryVectorizer.load(target.toPath());
+        assertEquals(DIM, vec.getVectorSize());
+        assertEquals(aVectors.size(), vec.getVocabulary().size());
+        for (Map.Entry<String, float[]> e : aVectors.entrySet()) {
+            assertArrayEquals(e.getKey(), e.getValue(), vec.vectorize(e.getKey()), 0.0f);
+        }
+        assertFalse(vec.contains("unknown"));
+        assertArrayEquals(unk, vec.vectorize("unknown"), 0.0f);
+    }
+    
+    private static void writeText(PrintWriter aOut, Map<String, float[]> aVectors)
+    {
+        for (Map.Entry<String, float[]> e : aVectors.entrySet()) {
+            aOut.println(line(e.getKey(), e.getValue()));
+        }
+    }
+    
+    private static String line(String aWord, float[] aVector)
+    {
+        StringBuilder sb = new StringBuilder(aWord);
+        for (float f : aVector) {
+            sb.append(' ').append(f);
+        }
+        return sb.toString();
+    }
+
+    private static Map<String, float[]> randomVectors(int aCount)
+    {
+        // Insertion order differs from sort order so the converter has to sort
+        String[] words = new String[aCount];
+        for (int i = 0; i < aCount; i++) {
+            words[i] = "word" + (aCount - 1 - i);
+        }
+        return BinaryWordVectorSerializerTest.randomVectors(words, DIM);
+    }
+
+    @Rule
+    public DkproTestContext testContext = new DkproTestContext();
+}
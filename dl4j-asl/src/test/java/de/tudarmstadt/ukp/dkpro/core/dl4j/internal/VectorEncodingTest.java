@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class VectorEncodingTest
+{
+    @Test
+    public void testHalfPrecisionRoundTrip()
+    {
+        // Every finite half precision value must survive the conversion to float and back
+        for (int i = 0; i < 0x10000; i++) {
+            short half = (short) i;
+            if ((half & 0x7c00) == 0x7c00) {
+                continue;
+            }
+            assertEquals(i, VectorEncoding.toHalf(VectorEncoding.fromHalf(half)) & 0xffff);
+        }
+    }
+
+    @Test
+    public void testHalfPrecisionSpecialValues()
+    {
+        assertEquals(0x3c00, VectorEncoding.toHalf(1.0f));
+        assertEquals(0xc000, VectorEncoding.toHalf(-2.0f) & 0xffff);
+        assertEquals(0x7bff, VectorEncoding.toHalf(65504.0f));
+        assertEquals(0x7c00, VectorEncoding.toHalf(65520.0f));
+        assertEquals(0x0001, VectorEncoding.toHalf(0x1.0p-24f));
+        assertEquals(0x0000, VectorEncoding.toHalf(0x1.0p-25f));
+        assertEquals(0x8000, VectorEncoding.toHalf(-0.0f) & 0xffff);
+        assertEquals(Float.POSITIVE_INFINITY, VectorEncoding.fromHalf((short) 0x7c00), 0.0f);
+        assertTrue(Float.isNaN(VectorEncoding.fromHalf(VectorEncoding.toHalf(Float.NaN))));
+    }
+
+    @Test
+    public void testAccuracy()
+    {
+        Random rnd = new Random(0);
+        float[] vector = new float[300];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = (float) rnd.nextGaussian();
+        }
+
+        assertAccuracy(VectorEncoding.FLOAT32, vector, 0.0f);
+        assertAccuracy(VectorEncoding.FLOAT16, vector, 0.002f);
+        assertAccuracy(VectorEncoding.INT8, vector, 0.02f);
+    }
+
+    @Test
+    public void testInt8ZeroVector()
+    {
+        assertAccuracy(VectorEncoding.INT8, new float[10], 0.0f);
+    }
+
+    private static void assertAccuracy(VectorEncoding aEncoding, float[] aVector, float aDelta)
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(aEncoding.recordSize(aVector.length));
+        aEncoding.encode(aVector, buffer);
+        assertEquals(buffer.capacity(), buffer.position());
+
+        float[] decoded = new float[aVector.length + 2];
+        aEncoding.decode(buffer, 0, decoded, 1, aVector.length);
+        assertEquals(buffer.capacity(), buffer.position());
+
+        float[] expected = new float[decoded.length];
+        System.arraycopy(aVector, 0, expected, 1, aVector.length);
+        assertArrayEquals(aEncoding.name(), expected, decoded, aDelta);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.nd4j.linalg.dataset.DataSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.BinaryVectorizer;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.Header;
+
+/**
+ * Compares assembling mini-batches in plain arrays against setting labels and masks element by
+ * element. Run with {@code main} from the IDE or via the JMH runner on the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class VectorizeBenchmark
+{
+    private static final int WORDS = 20_000;
+    private static final int TAGSET_SIZE = 70;
+    
+    @Param({ "32", "128" })
+    public int batchSize;
+    
+    @Param({ "300" })
+    public int dimensions;
+    
+    private File folder;
+    private BinaryVectorizer wordVectors;
+    private List<EncodedSentence> batch;
+    
+    @Setup
+    public void setup()
+        throws Exception
+    {
+        Random rnd = new Random(1);
+        float[][] pool = new float[1024][dimensions];
+        for (float[] vector : pool) {
+            for (int i = 0; i < dimensions; i++) {
+                vector[i] = rnd.nextFloat() - 0.5f;
+            }
+        }
+        
+        String[] words = new String[WORDS];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = "w" + i;
+        }
+        
+        folder = Files.createTempDirectory("vectorize").toFile();
+        File file = new File(folder, "vectors.dl4jw2v");
+        BinaryWordVectorSerializer.writeBinary(
+                new Header(Header.VERSION, dimensions, false, Locale.US), words,
+                word -> pool[Integer.parseInt(word.substring(1)) % pool.length],
+                new float[dimensions], file.toPath());
+        wordVectors = BinaryVectorizer.load(file.toPath());
+        
+        // Sentences of typical length, a few of them long
+        batch = new ArrayList<>();
+        for (int s = 0; s < batchSize; s++) {
+            int length = 5 + rnd.nextInt(rnd.nextInt(10) == 0 ? 100 : 30);
+            int[] wordIdxs = new int[length];
+            int[] tagIdxs = new int[length];
+            for (int t = 0; t < length; t++) {
+                wordIdxs[t] = rnd.nextInt(WORDS + 1) - 1;
+                tagIdxs[t] = rnd.nextInt(TAGSET_SIZE);
+            }
+            batch.add(new EncodedSentence(wordIdxs, tagIdxs));
+        }
+    }
+    
+    @TearDown
+    public void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteQuietly(folder);
+    }
+    
+    @Benchmark
+    public DataSet bulk()
+    {
+        return Vectorize.vectorize(batch, wordVectors, TAGSET_SIZE);
+    }
+    
+    @Benchmark
+    public DataSet byElement()
+    {
+        return VectorizeTest.vectorizeByElement(batch, wordVectors, TAGSET_SIZE);
+    }
+    
+    public static void main(String[] aArgs)
+        throws Exception
+    {
+        new Runner(new OptionsBuilder()
+                .include(VectorizeBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import static de.tudarmstadt.ukp.dkpro.core.dl4j.internal.NearestNeighborsTest.randomVectors;
+import static de.tudarmstadt.ukp.dkpro.core.dl4j.internal.NearestNeighborsTest.write;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.BinaryVectorizer;
+import de.tudarmstadt.ukp.dkpro.core.testing.DkproTestContext;
+
+public class VectorizeTest
+{
+    @Test
+    public void testBulkMatchesByElement()
+        throws Exception
+    {
+        BinaryVectorizer vec = write(randomVectors(100), testContext.getTestOutputFolder());
+        List<EncodedSentence> batch = asList(
+                new EncodedSentence(new int[] { 3, 17, -1, 42 }, new int[] { 0, 5, 2, 9 }),
+                new EncodedSentence(new int[] { 99 }, new int[] { 1 }),
+                new EncodedSentence(new int[] { 0, 1, 2 }, new int[] { 9, 9, 0 }));
+        
+        DataSet expected = vectorizeByElement(batch, vec, 10);
+        DataSet actual = Vectorize.vectorize(batch, vec, 10);
+        
+        assertEquals(expected.getFeatures(), actual.getFeatures());
+        assertEquals(expected.getLabels(), actual.getLabels());
+        assertEquals(expected.getFeaturesMaskArray(), actual.getFeaturesMaskArray());
+        assertEquals(expected.getLabelsMaskArray(), actual.getLabelsMaskArray());
+    }
+
+    @Test
+    public void testTagBeyondMaxTagsetSize()
+        throws Exception
+    {
+        BinaryVectorizer vec = write(randomVectors(100), testContext.getTestOutputFolder());
+        List<EncodedSentence> batch = asList(
+                new EncodedSentence(new int[] { 3, 17 }, new int[] { 0, 10 }));
+        
+        try {
+            Vectorize.vectorize(batch, vec, 10);
+            fail("Tag beyond the maximum tagset size was accepted");
+        }
+        catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("maxTagsetSize=10"));
+        }
+    }
+    
+    /**
+     * Straightforward variant of {@link Vectorize#vectorize(List, BinaryVectorizer, int)} which
+     * sets labels and masks element by element through {@code putScalar}. Serves as reference
+     * for tests and benchmarks.
+     */
+    static DataSet vectorizeByElement(List<EncodedSentence> sentences,
+            BinaryVectorizer wordVectors, int maxTagsetSize)
+    {
+        int featureVectorSize = wordVectors.getVectorSize();
+        int maxSentLength = sentences.stream().mapToInt(EncodedSentence::length).max()
+                .getAsInt();
+        
+        INDArray features = Nd4j.create(sentences.size(), featureVectorSize, maxSentLength);
+        INDArray labels = Nd4j.create(sentences.size(), maxTagsetSize, maxSentLength);
+        INDArray featuresMask = Nd4j.zeros(sentences.size(), maxSentLength);
+        INDArray labelsMask = Nd4j.zeros(sentences.size(), maxSentLength);
+        
+        DataBuffer featuresData = features.data();
+        long[] featuresStride = features.stride();
+        
+        for (int s = 0; s < sentences.size(); s++) {
+            EncodedSentence sentence = sentences.get(s);
+            int[] words = sentence.getWords();
+            int[] tags = sentence.getTags();
+            for (int t = 0; t < sentence.length(); t++) {
+                wordVectors.vectorizeInto(words[t], featuresData,
+                        features.offset() + s * featuresStride[0] + t * featuresStride[2],
+                        featuresStride[1]);
+                featuresMask.putScalar(new int[] { s, t }, 1.0);
+                
+                labels.putScalar(s, tags[t], t, 1.0);
+                labelsMask.putScalar(new int[] { s, t }, 1.0);
+            }
+        }
+        
+        return new DataSet(features, labels, featuresMask, labelsMask);
+    }
+
+    @Rule
+    public DkproTestContext testContext = new DkproTestContext();
+}
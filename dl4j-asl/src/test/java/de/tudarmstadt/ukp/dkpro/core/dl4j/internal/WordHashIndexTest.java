@@ -0,0 +1,200 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.dkpro.core.testing.DkproTestContext;
+
+public class WordHashIndexTest
+{
+    @Test
+    public void testLookup()
+        throws Exception
+    {
+        String[] words = randomVocabulary(10_000, 1);
+        WordHashIndex index = WordHashIndex.build(words);
+        Vocabulary vocabulary = new ArrayVocabulary(words, index);
+
+        for (int i = 0; i < words.length; i++) {
+            assertEquals(i, index.lookup(words[i], vocabulary));
+            // Must also work for equal strings which are not the same instance
+            assertEquals(i, index.lookup(new String(words[i]), vocabulary));
+        }
+
+        assertEquals(-1, index.lookup("", vocabulary));
+        assertEquals(-1, index.lookup("not-in-the-vocabulary", vocabulary));
+    }
+
+    @Test
+    public void testWriteAndMap()
+        throws Exception
+    {
+        String[] words = randomVocabulary(1_000, 2);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bos)) {
+            WordHashIndex.build(words).write(out);
+        }
+        assertEquals(WordHashIndex.sizeInBytes(words.length), bos.size());
+
+        File file = new File(testContext.getTestOutputFolder(), "index.bin");
+        Files.copy(new ByteArrayInputStream(bos.toByteArray()), file.toPath());
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            WordHashIndex index = WordHashIndex.map(raf, words.length);
+            assertEquals(raf.length(), raf.getFilePointer());
+            Vocabulary vocabulary = new ArrayVocabulary(words, index);
+            for (int i = 0; i < words.length; i++) {
+                assertEquals(i, vocabulary.indexOf(words[i]));
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testMapTooSmall()
+        throws Exception
+    {
+        String[] words = randomVocabulary(100, 5);
+        File file = new File(testContext.getTestOutputFolder(), "index.bin");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            WordHashIndex.build(words).write(out);
+        }
+        
+        // An index of a smaller vocabulary, e.g. a stale one
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            WordHashIndex.map(raf, 1_000);
+        }
+    }
+    
+    @Test
+    public void testDamaged()
+        throws Exception
+    {
+        String[] words = { "a" };
+        Vocabulary vocabulary = new ArrayVocabulary(words);
+        
+        // Two slots for a single word - both occupied, so an unknown word finds no empty slot,
+        // or pointing beyond the vocabulary
+        assertDamaged(vocabulary, 0, 1, 0, 1);
+        assertDamaged(vocabulary, WordHashIndex.hash("b"), 2, WordHashIndex.hash("b"), 2);
+    }
+    
+    private void assertDamaged(Vocabulary aVocabulary, int... aSlots)
+        throws IOException
+    {
+        File file = new File(testContext.getTestOutputFolder(), "damaged.bin");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(aSlots.length / 2);
+            for (int slot : aSlots) {
+                out.writeInt(slot);
+            }
+        }
+        
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            WordHashIndex index = WordHashIndex.map(raf, aVocabulary.size());
+            index.lookup("b", aVocabulary);
+            fail("Damaged index was not detected");
+        }
+        catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    @Ignore("Benchmark")
+    @Test
+    public void benchmarkLookup()
+        throws Exception
+    {
+        // Roughly the size of the GloVe 6B vocabulary
+        String[] words = randomVocabulary(400_000, 3);
+        Vocabulary vocabulary = new ArrayVocabulary(words);
+
+        // Mostly known words with a few unknown ones thrown in
+        Random rnd = new Random(4);
+        String[] queries = new String[1_000_000];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = rnd.nextInt(10) == 0 ? randomWord(rnd)
+                    : new String(words[rnd.nextInt(words.length)]);
+        }
+
+        for (int round = 0; round < 5; round++) {
+            long found = 0;
+            long start = System.nanoTime();
+            for (String q : queries) {
+                if (Arrays.binarySearch(words, q) >= 0) {
+                    found++;
+                }
+            }
+            long binarySearch = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (String q : queries) {
+                if (vocabulary.indexOf(q) >= 0) {
+                    found--;
+                }
+            }
+            long hash = System.nanoTime() - start;
+
+            assertEquals(0, found);
+            System.out.printf("Round %d: binary search %5.1f ns/lookup, hash index %5.1f ns/lookup%n",
+                    round, (double) binarySearch / queries.length,
+                    (double) hash / queries.length);
+        }
+    }
+
+    private static String[] randomVocabulary(int aSize, long aSeed)
+    {
+        Random rnd = new Random(aSeed);
+        Set<String> words = new TreeSet<>();
+        while (words.size() < aSize) {
+            words.add(randomWord(rnd));
+        }
+        return words.toArray(new String[words.size()]);
+    }
+
+    private static String randomWord(Random aRandom)
+    {
+        char[] chars = new char[1 + aRandom.nextInt(12)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ('a' + aRandom.nextInt(26));
+        }
+        return new String(chars);
+    }
+
+    @Rule
+    public DkproTestContext testContext = new DkproTestContext();
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016
+ * Ubiquitous Knowledge Processing (UKP) Lab
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.dkpro.core.dl4j.internal;
+
+import static de.tudarmstadt.ukp.dkpro.core.dl4j.internal.NearestNeighborsTest.DIM;
+import static de.tudarmstadt.ukp.dkpro.core.dl4j.internal.NearestNeighborsTest.randomVectors;
+import static de.tudarmstadt.ukp.dkpro.core.dl4j.internal.NearestNeighborsTest.write;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.BinaryWordVectorSerializer.BinaryVectorizer;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.WordVectorCache.EvictionPolicy;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.WordVectorCache.LfuPolicy;
+import de.tudarmstadt.ukp.dkpro.core.dl4j.internal.WordVectorCache.LruPolicy;
+import de.tudarmstadt.ukp.dkpro.core.testing.DkproTestContext;
+
+public class WordVectorCacheTest
+{
+    @Test
+    public void testLru()
+        throws Exception
+    {
+        testZipf(LruPolicy::new);
+    }
+
+    @Test
+    public void testLfu()
+        throws Exception
+    {
+        testZipf(LfuPolicy::new);
+    }
+
+    @Test
+    public void testLruEviction()
+        throws Exception
+    {
+        BinaryVectorizer vec = write(randomVectors(10), testContext.getTestOutputFolder());
+        WordVectorCache cache = new WordVectorCache(vec, 2, LruPolicy::new);
+        String a = vec.getVocabulary().get(0);
+        String b = vec.getVocabulary().get(1);
+        String c = vec.getVocabulary().get(2);
+        
+        cache.indexOf(a);
+        cache.indexOf(b);
+        cache.indexOf(a);
+        cache.indexOf(c); // evicts b
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+        
+        cache.indexOf(a);
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.indexOf(c));
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.indexOf(b));
+        assertEquals(4, cache.getMisses());
+        assertEquals(2, cache.size());
+    }
+
+    /**
+     * Look up words with Zipf-distributed frequencies plus some unknown words. The cache must
+     * always return the same vectors as the vectorizer and serve most lookups itself.
+     */
+    private void testZipf(IntFunction<EvictionPolicy> aPolicy)
+        throws Exception
+    {
+        int words = 5_000;
+        BinaryVectorizer vec = write(randomVectors(words), testContext.getTestOutputFolder());
+        WordVectorCache cache = new WordVectorCache(vec, 500, aPolicy);
+        
+        double[] cumulative = new double[words];
+        double sum = 0;
+        for (int i = 0; i < words; i++) {
+            sum += 1.0 / (i + 1);
+            cumulative[i] = sum;
+        }
+        
+        Random rnd = new Random(42);
+        float[] expected = new float[DIM];
+        float[] actual = new float[DIM];
+        for (int n = 0; n < 50_000; n++) {
+            String word;
+            if (rnd.nextInt(100) == 0) {
+                word = "unknown-" + rnd.nextInt(100);
+            }
+            else {
+                int rank = Arrays.binarySearch(cumulative, rnd.nextDouble() * sum);
+                word = vec.getVocabulary().get(Math.min(words - 1, rank < 0 ? -rank - 1 : rank));
+            }
+            
+            assertEquals(vec.indexOf(word), cache.indexOf(word));
+            vec.vectorizeInto(word, expected, 0);
+            cache.vectorizeInto(word, actual, 0);
+            assertArrayEquals(word, expected, actual, 0f);
+        }
+        
+        assertEquals(100_000, cache.getHits() + cache.getMisses());
+        assertTrue("Hit rate too low: " + cache.getHitRate(), cache.getHitRate() > 0.6);
+    }
+
+    @Rule
+    public DkproTestContext testContext = new DkproTestContext();
+}